@@ -0,0 +1,144 @@
+package com.smanzana.Project3.Bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks and prints how long each operation took, so a change to the frame code or the nodes can be
+ * checked against how things were before it.<br />
+ * Each benchmark first gets {@link #WARMUP} untimed iterations so the JIT has compiled everything, and then
+ * {@link #MEASURED} timed ones. An iteration is one call to {@link Benchmark#run(int)}, sized to take about
+ * {@link #ITERATION_TIME}. The report has the average time per operation across the timed iterations, how
+ * much it moved around between them, and the best one.
+ * <p>Run it with <code>ant bench</code>, or by hand:<br />
+ * <code>java com.smanzana.Project3.Bench.Bench [name ...]</code><br />
+ * Passing names only runs the benchmarks whose names start with one of them (like <i>frame.</i> or
+ * <i>ring.</i>). Results are only comparable between runs on the same machine.</p>
+ * @author Skyler
+ */
+public class Bench {
+
+	public static final int WARMUP = 5, MEASURED = 5;
+
+	/**
+	 * About how long each iteration should take, in nanoseconds
+	 */
+	public static final long ITERATION_TIME = 500000000L;
+
+	/**
+	 * Benchmarks add whatever they compute in here so it can't be optimized away
+	 */
+	public static volatile long sink;
+
+	public static void main(String[] args) {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		FrameBenchmarks.addTo(benchmarks);
+		RingBenchmarks.addTo(benchmarks);
+
+		System.out.println(String.format("%-28s %14s %10s %14s %16s", "Benchmark", "ns/op", "+/-", "best ns/op",
+				"ops/s"));
+		for (Benchmark benchmark : benchmarks) {
+			if (!selected(benchmark, args)) {
+				continue;
+			}
+			try {
+				report(benchmark, measure(benchmark));
+			} catch (Exception e) {
+				e.printStackTrace();
+				System.out.println("Benchmark " + benchmark.getName() + " failed!");
+			}
+		}
+		System.out.println("(sink " + sink + ")");
+		System.exit(0);
+	}
+
+	/**
+	 * Throws away everything printed to System.out until it's put back. Nodes print a lot when they're set up and
+	 * killed, and that shouldn't be timed or mixed in with the results.
+	 * @return What System.out was, to put back when done
+	 */
+	public static PrintStream silence() {
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				;
+			}
+		}));
+		return console;
+	}
+
+	private static boolean selected(Benchmark benchmark, String[] names) {
+		if (names.length == 0) {
+			return true;
+		}
+		for (String name : names) {
+			if (benchmark.getName().startsWith(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Times a benchmark.
+	 * @param benchmark
+	 * @return The nanoseconds per operation of each timed iteration
+	 * @throws Exception
+	 */
+	public static double[] measure(Benchmark benchmark) throws Exception {
+		benchmark.setup();
+		try {
+			//find a count that takes about one iteration. Doubling also warms things up a bit
+			int count = 1;
+			long took = time(benchmark, count)[0];
+			while (took < ITERATION_TIME / 2 && count < benchmark.maxCount()) {
+				count = (int) Math.min((long) count * 2, benchmark.maxCount());
+				took = time(benchmark, count)[0];
+			}
+
+			for (int i = 0; i < WARMUP; i++) {
+				time(benchmark, count);
+			}
+
+			double[] results = new double[MEASURED];
+			for (int i = 0; i < MEASURED; i++) {
+				long[] result = time(benchmark, count);
+				results[i] = (double) result[0] / Math.max(1, result[1]);
+			}
+			return results;
+		} finally {
+			benchmark.teardown();
+		}
+	}
+
+	/**
+	 * @return How long one call to {@link Benchmark#run(int)} took in nanoseconds, and how many operations it did
+	 */
+	private static long[] time(Benchmark benchmark, int count) throws Exception {
+		long start = System.nanoTime();
+		long ops = benchmark.run(count);
+		return new long[] {System.nanoTime() - start, ops};
+	}
+
+	private static void report(Benchmark benchmark, double[] results) {
+		double mean = 0, best = Double.MAX_VALUE;
+		for (double result : results) {
+			mean += result;
+			best = Math.min(best, result);
+		}
+		mean /= results.length;
+
+		double variance = 0;
+		for (double result : results) {
+			variance += (result - mean) * (result - mean);
+		}
+		double deviation = Math.sqrt(variance / results.length);
+
+		System.out.println(String.format("%-28s %14.1f %10.1f %14.1f %16.0f  (per %s)", benchmark.getName(), mean,
+				deviation, best, 1e9 / mean, benchmark.getUnit()));
+	}
+
+}
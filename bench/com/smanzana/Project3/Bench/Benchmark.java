@@ -0,0 +1,63 @@
+package com.smanzana.Project3.Bench;
+
+/**
+ * One thing to time. The runner calls {@link #run(int)} over and over, working out how big a <i>count</i> to pass
+ * so each call takes about {@link Bench#ITERATION_TIME}, and then reports the time per operation.<br />
+ * Whatever the operation computes should end up in {@link Bench#sink}, or the JIT may decide it doesn't need to
+ * do the work at all.
+ * @author Skyler
+ */
+public abstract class Benchmark {
+
+	private String name, unit;
+
+	/**
+	 * @param name What it's listed as. Benchmarks can be picked by the start of their name
+	 * @param unit What one operation is, for the report (frame, hop, message...)
+	 */
+	protected Benchmark(String name, String unit) {
+		this.name = name;
+		this.unit = unit;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getUnit() {
+		return unit;
+	}
+
+	/**
+	 * Called once before any timing is done.
+	 * @throws Exception
+	 */
+	protected void setup() throws Exception {
+		;
+	}
+
+	/**
+	 * Called once after all the timing is done.
+	 * @throws Exception
+	 */
+	protected void teardown() throws Exception {
+		;
+	}
+
+	/**
+	 * Does the work being timed.
+	 * @param count How much work to do. For small things this is how many times to do them
+	 * @return How many operations were actually done. That's what the time gets divided by
+	 * @throws Exception
+	 */
+	protected abstract long run(int count) throws Exception;
+
+	/**
+	 * @return The most <i>count</i> the runner should ever pass to {@link #run(int)}. Big benchmarks that already
+	 * take a while with a count of 1 should keep this low
+	 */
+	protected int maxCount() {
+		return 1 << 24;
+	}
+
+}
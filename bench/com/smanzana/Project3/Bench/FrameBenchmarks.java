@@ -0,0 +1,213 @@
+package com.smanzana.Project3.Bench;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Random;
+
+import com.smanzana.Project3.Project3;
+import com.smanzana.Project3.Frame.Frame;
+import com.smanzana.Project3.Frame.FrameView;
+import com.smanzana.Project3.Frame.Token;
+import com.smanzana.Project3.Node.Node;
+
+/**
+ * Microbenchmarks for the pieces every frame goes through: reading the header (the old static way and through a
+ * {@link FrameView}), pulling the data and FS byte out, building a frame in {@link Node#assembleFrame}, and turning
+ * the token into bytes (into a new array, and into one that's reused).<br />
+ * They all run over the same {@link #FRAMES} made up frames of random sizes (with a token mixed in every so often),
+ * so the branches don't all go the same way every time.
+ * @author Skyler
+ */
+public class FrameBenchmarks {
+
+	public static final int FRAMES = 256;
+
+	private static byte[][] frames;
+	private static byte[][] data;
+
+	public static void addTo(List<Benchmark> benchmarks) {
+		benchmarks.add(new Benchmark("frame.header", "frame") {
+			@Override
+			protected long run(int count) {
+				long sum = 0;
+				for (int i = 0; i < count; i++) {
+					byte[] header = Frame.getHeader(frames()[i & (FRAMES - 1)]);
+					if (!Frame.Header.isToken(header)) {
+						sum += Frame.Header.getPriority(header) + Frame.Header.getDestination(header)
+								+ Frame.Header.getSource(header) + (Frame.Header.getSize(header) & 0xFF);
+					}
+				}
+				Bench.sink += sum;
+				return count;
+			}
+		});
+
+		benchmarks.add(new Benchmark("frame.view", "frame") {
+			private FrameView view = new FrameView();
+
+			@Override
+			protected long run(int count) {
+				long sum = 0;
+				for (int i = 0; i < count; i++) {
+					view.wrap(frames()[i & (FRAMES - 1)], 0);
+					if (!view.isToken()) {
+						sum += view.getPriority() + view.getDestination() + view.getSource() + view.getSize();
+					}
+				}
+				Bench.sink += sum;
+				return count;
+			}
+		});
+
+		benchmarks.add(new Benchmark("frame.getData", "frame") {
+			@Override
+			protected long run(int count) {
+				long sum = 0;
+				for (int i = 0; i < count; i++) {
+					sum += Frame.getData(frames()[i & (FRAMES - 1)]).length;
+				}
+				Bench.sink += sum;
+				return count;
+			}
+		});
+
+		benchmarks.add(new Benchmark("frame.getFrameStatus", "frame") {
+			@Override
+			protected long run(int count) {
+				long sum = 0;
+				for (int i = 0; i < count; i++) {
+					sum += Frame.getFrameStatus(frames()[i & (FRAMES - 1)]);
+				}
+				Bench.sink += sum;
+				return count;
+			}
+		});
+
+		benchmarks.add(new Benchmark("node.assembleFrame", "frame") {
+			private Assembler node;
+
+			@Override
+			protected void setup() {
+				PrintStream console = Bench.silence();
+				node = new Assembler();
+				System.setOut(console);
+			}
+
+			@Override
+			protected void teardown() throws Exception {
+				PrintStream console = Bench.silence();
+				try {
+					node.kill();
+				} finally {
+					System.setOut(console);
+				}
+			}
+
+			@Override
+			protected long run(int count) {
+				long sum = 0;
+				for (int i = 0; i < count; i++) {
+					byte[] message = data()[i & (FRAMES - 1)];
+					sum += node.assemble(i & 7, (byte) (i & 0x7F), message);
+				}
+				Bench.sink += sum;
+				return count;
+			}
+		});
+
+		benchmarks.add(new Benchmark("token.asBytes", "token") {
+			private Token token = new Token(new byte[6]);
+
+			@Override
+			protected long run(int count) {
+				long sum = 0;
+				for (int i = 0; i < count; i++) {
+					token.setPriority(i & 7);
+					sum += token.asBytes()[0];
+				}
+				Bench.sink += sum;
+				return count;
+			}
+		});
+
+		benchmarks.add(new Benchmark("token.writeTo", "token") {
+			private Token token = new Token(new byte[6]);
+			private byte[] bytes = new byte[6];
+
+			@Override
+			protected long run(int count) {
+				long sum = 0;
+				for (int i = 0; i < count; i++) {
+					token.setPriority(i & 7);
+					token.writeTo(bytes);
+					sum += bytes[0];
+				}
+				Bench.sink += sum;
+				return count;
+			}
+		});
+	}
+
+	/**
+	 * Lets the benchmark get at {@link Node#assembleFrame(int, byte, int, byte[])}. Frames go right back to the
+	 * pool, like they would after being sent.
+	 */
+	private static class Assembler extends Node {
+
+		private Assembler() {
+			super(Project3.THT, (byte) 1, 0);
+		}
+
+		private int assemble(int priority, byte destination, byte[] message) {
+			byte[] frame = assembleFrame(priority, destination, message.length, message);
+			int first = frame[0];
+			pool.release(frame);
+			return first;
+		}
+
+	}
+
+	private static byte[][] frames() {
+		if (frames == null) {
+			make();
+		}
+		return frames;
+	}
+
+	private static byte[][] data() {
+		if (data == null) {
+			make();
+		}
+		return data;
+	}
+
+	private static void make() {
+		Random rand = new Random(353);
+		frames = new byte[FRAMES][];
+		data = new byte[FRAMES][];
+		for (int i = 0; i < FRAMES; i++) {
+			if (i % 16 == 0) {
+				frames[i] = new Token(new byte[6]).asBytes();
+				data[i] = new byte[0];
+				continue;
+			}
+
+			int size = 1 + rand.nextInt(254);
+			data[i] = new byte[size];
+			for (int j = 0; j < size; j++) {
+				data[i][j] = (byte) ('A' + rand.nextInt(26));
+			}
+
+			byte[] frame = new byte[Frame.headerLength + size + 1];
+			frame[0] = (byte) (((i & 7) << 5) | 16);
+			frame[1] = 1;
+			frame[2] = (byte) (1 + rand.nextInt(127));
+			frame[3] = (byte) (1 + rand.nextInt(127));
+			frame[4] = (byte) size;
+			System.arraycopy(data[i], 0, frame, Frame.headerLength, size);
+			frame[frame.length - 1] = (byte) rand.nextInt(4);
+			frames[i] = frame;
+		}
+	}
+
+}
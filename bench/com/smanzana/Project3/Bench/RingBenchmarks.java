@@ -0,0 +1,243 @@
+package com.smanzana.Project3.Bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.smanzana.Project3.Project3;
+import com.smanzana.Project3.Frame.Frame;
+import com.smanzana.Project3.Node.Monitor;
+import com.smanzana.Project3.Node.Node;
+import com.smanzana.Project3.Node.Simulation;
+import com.smanzana.Project3.Transport.Listener;
+import com.smanzana.Project3.Transport.MemoryTransport;
+import com.smanzana.Project3.Transport.Outbound;
+import com.smanzana.Project3.Transport.SimulatedTransport;
+import com.smanzana.Project3.Transport.TcpTransport;
+import com.smanzana.Project3.Transport.Transport;
+import com.smanzana.Project3.Utils.Clock;
+import com.smanzana.Project3.Utils.ReceiveBuffer;
+import com.smanzana.Project3.Utils.VirtualClock;
+
+/**
+ * Macrobenchmarks for whole hops and whole rings.
+ * <p>The <i>hop</i> benchmarks push frames through one real {@link Node}, running on its own thread like it
+ * would in a ring. The benchmark is both of its neighbors: it sends a frame that isn't for the node on the link
+ * into it and waits for the node to forward it out the other. So a hop is the node's whole forwarding path
+ * ({@link Node#step(int)} and everything under it) plus a trip over each of its two links.</p>
+ * <p>The <i>ring</i> benchmarks run a whole ring of 3, 16 or 254 nodes plus the monitor through a
+ * {@link Simulation} until every message has been delivered and the ring has been killed. Links are free there (no
+ * latency, no bandwidth limit), so the time is all spent in the nodes themselves, and it's the same work every
+ * run. Faults are turned off. Only nodes with addresses up to 127 send anything, since input lines can't name a
+ * destination past that.</p>
+ * @author Skyler
+ */
+public class RingBenchmarks {
+
+	/**
+	 * How big the data in the hop benchmarks' frame is
+	 */
+	public static final int HOP_FRAME_SIZE = 32;
+
+	/**
+	 * How many different input lines each sending node cycles through in the ring benchmarks
+	 */
+	public static final int LINES = 64;
+
+	public static void addTo(List<Benchmark> benchmarks) {
+		benchmarks.add(new HopBenchmark("hop.memory", new MemoryTransport()));
+		benchmarks.add(new HopBenchmark("hop.tcp", new TcpTransport()));
+		benchmarks.add(new RingBenchmark(3));
+		benchmarks.add(new RingBenchmark(16));
+		benchmarks.add(new RingBenchmark(254));
+	}
+
+	private static class HopBenchmark extends Benchmark {
+
+		/**
+		 * Addresses in the frame we push through the node. Neither is the node's, so it just forwards it
+		 */
+		private static final byte SOURCE = 1, DESTINATION = 3;
+
+		private Transport transport;
+		private Node node;
+		private Outbound out;
+		private ReceiveBuffer in;
+		private byte[] frame;
+
+		private HopBenchmark(String name, Transport transport) {
+			super(name, "hop");
+			this.transport = transport;
+		}
+
+		@Override
+		protected void setup() throws Exception {
+			Project3.transport = transport;
+			Project3.clock = Clock.SYSTEM;
+			Project3.faultRates = new double[] {0, 0, 0};
+			Project3.faultScript = null;
+
+			//we're both of the node's neighbors: it sends to us on port - 1, and we send to it on port
+			int port = 20000 + new Random().nextInt(40000);
+			InetSocketAddress downstream = new InetSocketAddress("127.0.0.1", port - 1);
+			Listener listener = transport.bind(downstream);
+			PrintStream console = Bench.silence();
+			try {
+				node = new Node(Project3.THT, (byte) 2, port);
+				node.bind();
+				Thread setup = new Thread(new Runnable() {
+					public void run() {
+						node.setup(); //waits on us to connect to it
+					}
+				}, "HopSetup");
+				setup.start();
+				out = transport.connect(new InetSocketAddress("127.0.0.1", port));
+				setup.join();
+				in = new ReceiveBuffer(listener.accept(Node.ACCEPT_TIMEOUT));
+				node.start();
+			} finally {
+				listener.close();
+				System.setOut(console);
+			}
+
+			frame = new byte[Frame.headerLength + HOP_FRAME_SIZE + 1];
+			frame[0] = 16;
+			frame[1] = 1;
+			frame[2] = DESTINATION;
+			frame[3] = SOURCE;
+			frame[4] = HOP_FRAME_SIZE;
+		}
+
+		@Override
+		protected void teardown() throws Exception {
+			PrintStream console = Bench.silence();
+			try {
+				byte[] kill = new byte[] {0, 2, 0, 0, 0, 0};
+				out.write(kill, 0, kill.length);
+				node.join(Node.ACCEPT_TIMEOUT);
+			} finally {
+				System.setOut(console);
+			}
+			out.close();
+			in.close();
+		}
+
+		@Override
+		protected long run(int count) throws Exception {
+			//so the node doesn't think the monitor's gone quiet between iterations and start an election
+			byte[] present = new byte[] {0, 8, 0, 0, 0, 0};
+			out.write(present, 0, present.length);
+
+			for (int i = 0; i < count; i++) {
+				frame[Frame.headerLength] = (byte) i;
+				out.write(frame, 0, frame.length);
+				while (!next()) {
+					;
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Waits for the next frame the node sends us and takes it off the link.
+		 * @return Whether it was our data frame, and not one of the monitor frames
+		 */
+		private boolean next() throws IOException {
+			in.await(Frame.headerLength);
+			int length = Frame.headerLength + (in.peek(4) & 0xFF) + 1;
+			in.await(length);
+			boolean data = in.peek(1) == 1;
+			if (data) {
+				Bench.sink += in.peek(Frame.headerLength);
+			}
+			in.skip(length);
+			return data;
+		}
+
+		@Override
+		protected int maxCount() {
+			return 1 << 20;
+		}
+
+	}
+
+	private static class RingBenchmark extends Benchmark {
+
+		private int nodeCount;
+
+		/**
+		 * The input lines each sending node cycles through, indexed by address
+		 */
+		private byte[][][] lines;
+		private int senders;
+
+		private RingBenchmark(int nodeCount) {
+			super("ring." + nodeCount, "message");
+			this.nodeCount = nodeCount;
+		}
+
+		@Override
+		protected void setup() {
+			Project3.faultRates = new double[] {0, 0, 0};
+			Project3.faultScript = null;
+
+			senders = Math.min(nodeCount, 127);
+			Random rand = new Random(nodeCount);
+			lines = new byte[senders + 1][LINES][];
+			for (int address = 1; address <= senders; address++) {
+				for (int i = 0; i < LINES; i++) {
+					int destination = 1 + (address + rand.nextInt(senders - 1)) % senders; //never ourselves
+					int size = 1 + rand.nextInt(64);
+					StringBuilder line = new StringBuilder();
+					line.append(destination).append(',').append(size).append(',');
+					for (int j = 0; j < size; j++) {
+						line.append((char) ('A' + rand.nextInt(26)));
+					}
+					lines[address][i] = line.toString().getBytes();
+				}
+			}
+		}
+
+		/**
+		 * Runs the ring once, with each sending node sending <i>count</i> messages.
+		 */
+		@Override
+		protected long run(int count) {
+			VirtualClock clock = new VirtualClock();
+			SimulatedTransport transport = new SimulatedTransport(clock, 0, Long.MAX_VALUE);
+			Project3.transport = transport;
+			Project3.clock = clock;
+
+			PrintStream console = Bench.silence();
+			try {
+				List<Node> nodes = new ArrayList<Node>(nodeCount + 1);
+				for (int i = 1; i <= nodeCount; i++) {
+					Node node = new Node(Project3.THT, (byte) i, i);
+					if (i <= senders) {
+						for (int j = 0; j < count; j++) {
+							node.addMessage(lines[i][j % LINES]);
+						}
+					}
+					nodes.add(node);
+				}
+				nodes.add(0, new Monitor(Project3.THT, (byte) 0, 0, nodeCount + 1));
+
+				new Simulation(nodes, transport).run(0);
+			} finally {
+				System.setOut(console);
+			}
+			Bench.sink += transport.getFrames();
+			return (long) count * senders;
+		}
+
+		@Override
+		protected int maxCount() {
+			return 1 << 16;
+		}
+
+	}
+
+}
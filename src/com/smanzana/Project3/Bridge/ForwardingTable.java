@@ -0,0 +1,109 @@
+package com.smanzana.Project3.Bridge;
+
+import java.util.Arrays;
+
+/**
+ * Which side of a bridge each node address is on, learned from the traffic going through it.<br />
+ * A "port" is just a number for one of the bridge's sides: which ring it is in a {@link RingBridge}, or local/remote
+ * in a ring's {@link com.smanzana.Project3.Node.Bridge}. Whatever port a frame comes in on, its source lives on that
+ * side, so that's what gets learned. Addresses nobody's heard from yet are {@link #UNKNOWN}, and frames for them
+ * have to go everywhere.
+ * <p>0 and 255 are never learned. Every ring has its own monitor at 0 and bridge at 255, so they don't belong to
+ * any one side.</p>
+ * @author Skyler
+ */
+public class ForwardingTable {
+
+	public static final int UNKNOWN = -1;
+
+	/**
+	 * The port each address was learned on, indexed by unsigned address
+	 */
+	private int[] ports;
+	private int learned;
+
+	public ForwardingTable() {
+		ports = new int[256];
+		Arrays.fill(ports, UNKNOWN);
+		learned = 0;
+	}
+
+	/**
+	 * Records that <i>address</i> is on <i>port</i>. The newest sighting wins, so a node that moves gets followed.
+	 * @param address
+	 * @param port
+	 * @return true if this was news: the address was unknown, or was somewhere else
+	 */
+	public boolean learn(byte address, int port) {
+		if (address == 0 || address == (byte) 255) {
+			return false;
+		}
+
+		int old = ports[address & 0xFF];
+		if (old == port) {
+			return false;
+		}
+		if (old == UNKNOWN) {
+			learned++;
+		}
+		ports[address & 0xFF] = port;
+		return true;
+	}
+
+	/**
+	 * Learns <i>address</i> is on <i>port</i>, but only if we didn't already think it was somewhere. For guesses
+	 * that are less sure than seeing the node send something itself.
+	 * @param address
+	 * @param port
+	 * @return true if it was learned
+	 */
+	public boolean learnIfUnknown(byte address, int port) {
+		if (lookup(address) != UNKNOWN) {
+			return false;
+		}
+		return learn(address, port);
+	}
+
+	/**
+	 * @param address
+	 * @return The port <i>address</i> was learned on, or {@link #UNKNOWN}
+	 */
+	public int lookup(byte address) {
+		return ports[address & 0xFF];
+	}
+
+	/**
+	 * Forgets every address that was on <i>port</i>, like when that side goes away.
+	 * @param port
+	 */
+	public void forget(int port) {
+		for (int i = 0; i < ports.length; i++) {
+			if (ports[i] == port) {
+				ports[i] = UNKNOWN;
+				learned--;
+			}
+		}
+	}
+
+	/**
+	 * @return How many addresses we know the side of
+	 */
+	public int size() {
+		return learned;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder("[");
+		for (int i = 0; i < ports.length; i++) {
+			if (ports[i] != UNKNOWN) {
+				if (out.length() > 1) {
+					out.append(", ");
+				}
+				out.append(i).append("->").append(ports[i]);
+			}
+		}
+		return out.append(']').toString();
+	}
+
+}
@@ -0,0 +1,344 @@
+package com.smanzana.Project3.Bridge;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import com.smanzana.Project3.Frame.Frame;
+import com.smanzana.Project3.Frame.FrameView;
+import com.smanzana.Project3.Node.Bridge;
+import com.smanzana.Project3.Node.Bridge.STDMessage;
+import com.smanzana.Project3.Node.Node;
+import com.smanzana.Project3.Transport.Outbound;
+import com.smanzana.Project3.Transport.TcpTransport;
+import com.smanzana.Project3.Utils.ReceiveBuffer;
+
+/**
+ * The bridge process that joins rings together, as many as you like.<br />
+ * Every ring's {@link Bridge} node connects to us on the port in the bridge config, and sends one byte. We connect
+ * back to it on 7000 plus that byte, and that's one ring hooked up.
+ * <p>Which ring each node is on gets learned from the frames that come in, in a {@link ForwardingTable}. A frame
+ * goes to the ring its destination is on, or to every ring but the one it came from if we don't know yet. It never
+ * goes back where it came from, since that ring's bridge only sends us what it doesn't have. Answers (frames with a
+ * status of 2 or 3, sent back because the source asked with {@link Bridge#REPORT}) go to the ring their
+ * <i>source</i> is on instead, and tell us which ring their destination is on.</p>
+ * <p>Once every ring has said it's finished, they all get told to die, and so do we.</p>
+ * <p>Everything runs on one thread, waiting on all the rings with a selector.</p>
+ * @author Skyler
+ */
+public class RingBridge {
+
+	/**
+	 * How long we wait on the rings before checking on them anyways, in milliseconds
+	 */
+	public static final int POLL_TIME = 100;
+
+	private class Ring {
+
+		private int index;
+		private ReceiveBuffer in;
+		private Outbound out;
+		private FrameView view;
+		private boolean finished;
+
+		/**
+		 * Frames that came in from this ring, and frames that went out to it
+		 */
+		private long received, sent;
+
+		private Ring(int index, ReceiveBuffer in, Outbound out) {
+			this.index = index;
+			this.in = in;
+			this.out = out;
+			this.view = new FrameView();
+			this.finished = false;
+			received = sent = 0;
+		}
+
+	}
+
+	private List<Ring> rings;
+	private ForwardingTable table;
+
+	/**
+	 * Frames that went to just the one ring they needed to, that went to every other ring, and that went nowhere
+	 */
+	private long forwarded, flooded, dropped;
+
+	public RingBridge() {
+		rings = new ArrayList<Ring>();
+		table = new ForwardingTable();
+		forwarded = flooded = dropped = 0;
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			usage();
+			return;
+		}
+
+		int port;
+		try {
+			Scanner config = new Scanner(new File(args[0]));
+			port = config.nextInt();
+			config.close();
+		} catch (FileNotFoundException e) {
+			System.out.println("Unable to find config file: " + args[0]);
+			return;
+		}
+
+		int count = Integer.parseInt(args[1]);
+		if (count < 2) {
+			System.out.println("Invalid number of rings: " + count + ". There's nothing to bridge with less than 2!");
+			return;
+		}
+
+		RingBridge bridge = new RingBridge();
+		try {
+			bridge.accept(port, count);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Unable to hook up the rings!");
+			return;
+		}
+		bridge.run();
+	}
+
+	private static void usage() {
+		System.out.println("Usage:");
+		System.out.println("java -cp jar_name.jar com.smanzana.Project3.Bridge.RingBridge bridge.conf numberOfRings");
+	}
+
+	/**
+	 * Waits for <i>count</i> rings to connect on <i>port</i>, and connects back to each of them.
+	 * @param port
+	 * @param count
+	 * @throws IOException
+	 */
+	public void accept(int port, int count) throws IOException {
+		ServerSocketChannel sSock = ServerSocketChannel.open();
+		try {
+			sSock.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			sSock.bind(new InetSocketAddress("127.0.0.1", port));
+			System.out.println("Bridge waiting for " + count + " rings on port " + port + "...");
+			while (rings.size() < count) {
+				SocketChannel channel = sSock.accept();
+
+				//they tell us where to connect back to them
+				ByteBuffer offset = ByteBuffer.allocate(1);
+				while (offset.hasRemaining()) {
+					if (channel.read(offset) == -1) {
+						throw new IOException("Ring hung up before saying where to connect back to");
+					}
+				}
+				Outbound out = connect(new InetSocketAddress("127.0.0.1", 7000 + offset.get(0)));
+
+				Ring ring = new Ring(rings.size(), new ReceiveBuffer(TcpTransport.wrap(channel)), out);
+				rings.add(ring);
+				System.out.println("Ring " + ring.index + " connected!");
+			}
+		} finally {
+			sSock.close();
+		}
+	}
+
+	/**
+	 * Connects to a ring's bridge, backing off and trying again the same way nodes do if it isn't listening yet.
+	 */
+	private Outbound connect(InetSocketAddress address) throws IOException {
+		TcpTransport transport = new TcpTransport();
+		long backoff = Node.CONNECT_BACKOFF;
+		for (int attempt = 1; true; attempt++) {
+			try {
+				return transport.connect(address);
+			} catch (IOException e) {
+				if (attempt >= Node.CONNECT_ATTEMPTS) {
+					throw e;
+				}
+			}
+
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while connecting to " + address);
+			}
+			backoff = Math.min(backoff * 2, Node.MAX_CONNECT_BACKOFF);
+		}
+	}
+
+	/**
+	 * Passes frames between the rings until they've all finished.
+	 */
+	public void run() {
+		Selector selector;
+		try {
+			selector = Selector.open();
+			for (Ring ring : rings) {
+				ring.in.register(selector, ring);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Unable to set up the bridge's selector!");
+			return;
+		}
+
+		System.out.println("Bridge is up with " + rings.size() + " rings!");
+		while (!allFinished()) {
+			try {
+				selector.select(POLL_TIME);
+				selector.selectedKeys().clear();
+				for (Ring ring : rings) {
+					FrameView frame;
+					while ((frame = next(ring)) != null) {
+						ring.received++;
+						process(ring, frame);
+					}
+					if (ring.in.isClosed() && !ring.finished) {
+						System.out.println("Ring " + ring.index + " hung up without finishing!");
+						ring.finished = true;
+						table.forget(ring.index);
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println("Encountered an IO Exception when trying to fetch/process input!");
+				break;
+			}
+		}
+
+		System.out.println("Every ring is finished. Killing them all...");
+		byte[] kill = communication(STDMessage.KILL);
+		for (Ring ring : rings) {
+			send(ring, kill, 0, kill.length);
+		}
+		System.out.println("Bridge forwarded " + forwarded + " frames, flooded " + flooded + " and dropped " + dropped);
+		for (Ring ring : rings) {
+			System.out.println("\tRing " + ring.index + ": " + ring.received + " frames in, " + ring.sent + " out");
+		}
+		System.out.println("Nodes learned: " + table);
+
+		try {
+			selector.close();
+			for (Ring ring : rings) {
+				ring.in.close();
+				ring.out.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return The next whole frame from <i>ring</i>, without waiting, or null if there isn't one yet
+	 */
+	private FrameView next(Ring ring) throws IOException {
+		if (ring.in.isClosed() || !ring.in.await(Frame.headerLength, 0)) {
+			return null;
+		}
+		int size = ring.in.peek(4) & 0xFF;
+		if (!ring.in.await(Frame.headerLength + size + 1, 0)) {
+			return null;
+		}
+		ring.view.wrap(ring.in.buffer(), ring.in.position());
+		ring.in.skip(ring.view.length());
+		return ring.view;
+	}
+
+	private void process(Ring from, FrameView frame) {
+		if (frame.getSource() == 0 && frame.getSize() == 1) {
+			//a message for us from the ring's bridge
+			STDMessage msg = STDMessage.fromId(frame.buffer().get(frame.dataOffset()));
+			if (msg == STDMessage.FINISH && !from.finished) {
+				System.out.println("Ring " + from.index + " is finished");
+				from.finished = true;
+			}
+			return;
+		}
+
+		if (frame.isToken()) {
+			//a ring's bridge never sends its token over. Sending it back could leave the ring with two, so it's
+			//dropped, and the ring's monitor puts out a new one if it really was lost
+			System.out.println("Ring " + from.index + " sent us a token! Dropping it");
+			dropped++;
+			return;
+		}
+
+		int status = frame.getFrameStatus();
+		if (status == 2 || status == 3) {
+			//an answer for a source that asked. It goes home, and now we know where its destination is
+			table.learn(frame.getDestination(), from.index);
+			forward(from, frame, table.lookup(frame.getSource()));
+			return;
+		}
+
+		table.learn(frame.getSource(), from.index);
+		forward(from, frame, table.lookup(frame.getDestination()));
+	}
+
+	/**
+	 * Sends a frame that came from <i>from</i> to ring <i>to</i>, or to every other ring if <i>to</i> is
+	 * {@link ForwardingTable#UNKNOWN}.
+	 */
+	private void forward(Ring from, FrameView frame, int to) {
+		if (to == from.index) {
+			//whoever it's for is on the ring it came from, and that ring still has it
+			dropped++;
+			return;
+		}
+		if (to != ForwardingTable.UNKNOWN) {
+			send(rings.get(to), frame);
+			forwarded++;
+			return;
+		}
+
+		for (Ring ring : rings) {
+			if (ring != from) {
+				send(ring, frame);
+			}
+		}
+		flooded++;
+	}
+
+	private void send(Ring to, FrameView frame) {
+		send(to, frame.buffer().array(), frame.buffer().arrayOffset() + frame.offset(), frame.length());
+	}
+
+	private void send(Ring to, byte[] frame, int offset, int length) {
+		if (to.out.isClosed()) {
+			return;
+		}
+		try {
+			to.out.write(frame, offset, length);
+			to.sent++;
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Error when sending a frame to ring " + to.index + "!");
+		}
+	}
+
+	/**
+	 * @return A message for a ring's bridge node: a plain frame from 0 with a single byte of data, the message's id
+	 */
+	private static byte[] communication(STDMessage msg) {
+		return new byte[] {16, 1, 0, 0, 1, msg.id, 0};
+	}
+
+	private boolean allFinished() {
+		for (Ring ring : rings) {
+			if (!ring.finished) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,178 @@
+package com.smanzana.Project3.Frame;
+
+/**
+ * A message from a node's input file, already turned into the exact bytes of the frame that carries it.<br />
+ * Nodes parse each input line once, when it's loaded, and queue one of these instead of the line itself. Sending
+ * it is then just writing {@link #bytes()} out, and figuring out which of our frames just came back is just a byte
+ * compare against a {@link FrameView}.
+ * <p>The FS byte in here is always 0, so the same frame can be sent as many times as it takes to get through.
+ * The only bytes that ever change are the sequence number of a {@link #isSequenced() sequenced} frame, which the
+ * node stamps the first time it sends it. It keeps that number through every resend until it gets through.</p>
+ * <p>A {@link #isBatch() batch} frame is built on the spot out of several queued frames when batching is on. It
+ * keeps those frames around as its {@link #getMembers() members}, so each one can still be sent again on its own.</p>
+ * @author Skyler
+ */
+public final class EncodedFrame {
+
+	private final byte[] frame;
+
+	/**
+	 * Whether the node that owns this is still waiting to hear back about it
+	 */
+	private boolean inFlight;
+
+	/**
+	 * Whether the frame has been given a sequence number that it keeps until it gets through
+	 */
+	private boolean numbered;
+
+	/**
+	 * The frames packed into this one, in the order they sit in the data. Null unless this is a batch
+	 */
+	private final EncodedFrame[] members;
+
+	/**
+	 * @param frame The whole frame, header through FS byte, and nothing more. It's kept, not copied
+	 */
+	public EncodedFrame(byte[] frame) {
+		this(frame, null);
+	}
+
+	/**
+	 * Makes a batch frame.
+	 * @param frame The whole batch frame. It's kept, not copied
+	 * @param members The frames that were packed into it, in order
+	 */
+	public EncodedFrame(byte[] frame, EncodedFrame[] members) {
+		this.frame = frame;
+		this.members = members;
+		this.inFlight = false;
+		this.numbered = false;
+	}
+
+	/**
+	 * @return The frame, exactly {@link #length()} bytes long. Don't change it, other than through
+	 * {@link #setSequence(int)}
+	 */
+	public byte[] bytes() {
+		return frame;
+	}
+
+	public int length() {
+		return frame.length;
+	}
+
+	public byte getDestination() {
+		return frame[2];
+	}
+
+	/**
+	 * @return The frame's priority, 0 to 7
+	 */
+	public int getPriority() {
+		return (frame[0] >> 5) & 7;
+	}
+
+	public int getSize() {
+		return frame[4] & 0xFF;
+	}
+
+	/**
+	 * Whether the frame carries a sequence number. That's every {@link Frame.Header#isSequenced(byte[]) sequenced}
+	 * frame big enough to hold one, every batch and every fragment.
+	 */
+	public boolean isSequenced() {
+		return (frame[1] == 4 || frame[1] == 5 || frame[1] == 6) && getSize() >= Frame.sequenceLength;
+	}
+
+	/**
+	 * @see Frame.Header#isFragment(byte[])
+	 */
+	public boolean isFragment() {
+		return frame[1] == 6;
+	}
+
+	/**
+	 * @see Frame.Header#isBatch(byte[])
+	 */
+	public boolean isBatch() {
+		return members != null;
+	}
+
+	/**
+	 * @return The frames packed into this batch, or null if it isn't one
+	 */
+	public EncodedFrame[] getMembers() {
+		return members;
+	}
+
+	/**
+	 * @return Index in {@link #bytes()} of the first byte of the actual message, past the sequence number if
+	 * there is one. Doesn't mean anything for a batch
+	 */
+	public int payloadOffset() {
+		if (isFragment()) {
+			return Frame.headerLength + Frame.fragmentHeaderLength;
+		}
+		return isSequenced() ? Frame.headerLength + Frame.sequenceLength : Frame.headerLength;
+	}
+
+	/**
+	 * @return How many bytes the actual message is
+	 */
+	public int payloadLength() {
+		return getSize() - (payloadOffset() - Frame.headerLength);
+	}
+
+	public int getSequence() {
+		return ((frame[Frame.headerLength] & 0xFF) << 8) | (frame[Frame.headerLength + 1] & 0xFF);
+	}
+
+	/**
+	 * Stamps a sequence number on the frame. Only for {@link #isSequenced() sequenced} frames.
+	 * @param sequence Only the low 16 bits are kept
+	 */
+	public void setSequence(int sequence) {
+		frame[Frame.headerLength] = (byte) (sequence >> 8);
+		frame[Frame.headerLength + 1] = (byte) sequence;
+	}
+
+	public boolean isInFlight() {
+		return inFlight;
+	}
+
+	public void setInFlight(boolean inFlight) {
+		this.inFlight = inFlight;
+	}
+
+	public boolean isNumbered() {
+		return numbered;
+	}
+
+	public void setNumbered(boolean numbered) {
+		this.numbered = numbered;
+	}
+
+	/**
+	 * Checks whether the frame the view points at is this one coming back around. Only the destination, size
+	 * and data are compared, since the AC and FS bytes get changed on the way.<br />
+	 * Sequenced frames don't need this; their sequence number says which one they are.
+	 * @param view
+	 * @return
+	 */
+	public boolean matches(FrameView view) {
+		if (view.getDestination() != frame[2] || view.getSize() != getSize() || view.isSequenced() != (frame[1] == 4)) {
+			return false;
+		}
+
+		int offset = view.dataOffset();
+		for (int i = 0; i < getSize(); i++) {
+			if (view.buffer().get(offset + i) != frame[Frame.headerLength + i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+}
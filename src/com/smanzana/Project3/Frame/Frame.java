@@ -26,6 +26,14 @@ public final class Frame {
 	public static int headerLength = 5; //default to 5. This can be changed externally to
 										//make out code a little less rigid
 	
+	public static int sequenceLength = 2; //how many bytes at the front of a sequenced frame's data are the sequence number
+	
+	public static int batchHeaderLength = 3; //sequence number plus the message count at the front of a batch frame's data
+	
+	public static int batchEntryLength = 2; //length and status bytes in front of each message in a batch frame
+	
+	public static int fragmentHeaderLength = 6; //sequence number, message number, fragment number and fragment count at the front of a fragment's data
+	
 	/**
 	 * Nested header of a frame that more specifically works on the 5 byte header
 	 * @author Skyler
@@ -106,6 +114,115 @@ public final class Frame {
 			return false;
 		}
 		
+		/**
+		 * Checks whether the frame is a <b>sequenced</b> data frame.<br />
+		 * A sequenced frame is defined (by me) as any frame with the FC byte set to <b>4</b>. It's just like a regular
+		 * data frame (FC of 1), except the first {@link Frame#sequenceLength} bytes of the data section are a
+		 * sequence number picked by the source. The size byte counts those too, so anything that just forwards
+		 * frames doesn't have to know about them. The source uses the number to tell which of its frames just came
+		 * back without having to compare the data.
+		 * @param header
+		 * @return true if the frame is a sequenced frame, false otherwise (including on error)
+		 */
+		public static boolean isSequenced(byte[] header) {
+			if (header == null || header.length != headerLength) {
+				return false;
+			}
+			
+			return header[1] == 4;
+		}
+		
+		/**
+		 * Checks whether the frame is a <b>batch</b> frame: a bunch of small messages for the same node packed into
+		 * one frame, defined (by me) as any frame with the FC byte set to <b>5</b>.<br />
+		 * The data section starts with a sequence number just like a sequenced frame, then one byte with how many
+		 * messages there are. Each message is then one byte of length, one byte of status (same values as the FS
+		 * byte) and the message itself. The destination fills in each message's status, so the source can tell
+		 * which ones were rejected and only send those again. The FS byte of the frame is just set once it's been
+		 * read.
+		 * @param header
+		 * @return true if the frame is a batch frame, false otherwise (including on error)
+		 */
+		public static boolean isBatch(byte[] header) {
+			if (header == null || header.length != headerLength) {
+				return false;
+			}
+			
+			return header[1] == 5;
+		}
+		
+		/**
+		 * Checks whether the frame is a <b>fragment</b> of a message too big to fit in one frame, defined (by me)
+		 * as any frame with the FC byte set to <b>6</b>.<br />
+		 * The data section starts with a sequence number just like a sequenced frame, then two bytes that number
+		 * the message (per source), one byte saying which fragment this is and one saying how many there are
+		 * ({@link Frame#fragmentHeaderLength} bytes in all). The rest is that piece of the message. Each fragment
+		 * is accepted or rejected on its own, and the destination puts the message back together once it has all
+		 * of them.
+		 * @param header
+		 * @return true if the frame is a fragment, false otherwise (including on error)
+		 */
+		public static boolean isFragment(byte[] header) {
+			if (header == null || header.length != headerLength) {
+				return false;
+			}
+			
+			return header[1] == 6;
+		}
+		
+		/**
+		 * Checks whether the frame is a <b>purge</b> frame, defined (by me) as any frame with the FC byte set to
+		 * <b>7</b>.<br />
+		 * Only the monitor sends these, addressed to itself, when the ring's gotten into a bad state (like the token
+		 * going missing). Every other node passes it along like any other frame, giving up the token if it was
+		 * holding on to it. The monitor throws away everything else that comes in until its purge makes it all the
+		 * way around. At that point the ring's empty, and it can put a new token on it.
+		 * @param header
+		 * @return true if the frame is a purge frame, false otherwise (including on error)
+		 */
+		public static boolean isPurge(byte[] header) {
+			if (header == null || header.length != headerLength) {
+				return false;
+			}
+			
+			return header[1] == 7;
+		}
+		
+		/**
+		 * Checks whether the frame is an <b>active monitor present</b> frame, defined (by me) as any frame with the
+		 * FC byte set to <b>8</b>.<br />
+		 * Whichever node is the active monitor sends one of these every so often, addressed to itself, so every
+		 * other node knows there still is one. Every other node is a standby monitor, and if they go too long
+		 * without seeing one of these they try to take over with a {@link #isClaim(byte[]) claim}.
+		 * @param header
+		 * @return true if the frame is an active monitor present frame, false otherwise (including on error)
+		 */
+		public static boolean isMonitorPresent(byte[] header) {
+			if (header == null || header.length != headerLength) {
+				return false;
+			}
+			
+			return header[1] == 8;
+		}
+		
+		/**
+		 * Checks whether the frame is a <b>claim</b> frame, defined (by me) as any frame with the FC byte set to
+		 * <b>9</b>.<br />
+		 * A standby monitor that hasn't heard from the active monitor in too long sends one of these, addressed to
+		 * itself, to try and become the new one. Standbys with a higher address throw it away and send their own,
+		 * so only the highest address's claim makes it all the way around. Whoever gets their own claim back is the
+		 * new active monitor.
+		 * @param header
+		 * @return true if the frame is a claim frame, false otherwise (including on error)
+		 */
+		public static boolean isClaim(byte[] header) {
+			if (header == null || header.length != headerLength) {
+				return false;
+			}
+			
+			return header[1] == 9;
+		}
+		
 		/**
 		 * Returns the priority of a frame as a byte. <br />
 		 * The priority in our frame structure is only 3 bits, so it shouldn't be bigger than 7. This method
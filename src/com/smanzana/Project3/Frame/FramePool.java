@@ -0,0 +1,93 @@
+package com.smanzana.Project3.Frame;
+
+/**
+ * A pool of byte arrays big enough to hold any frame, so nodes don't have to make a new array every time they
+ * build one to send.<br />
+ * The life of a pooled frame is always the same: {@link #acquire()} it, fill it in, send it, then
+ * {@link #release(byte[])} it right away. Sends are synchronous, so once the send returns nobody is looking at
+ * the array anymore.
+ * <p>One pool is shared by every node in the process. It keeps count of how often it could hand back a recycled
+ * array (a hit), how often it had to make a new one (a miss) and how many arrays are currently checked out. Once a
+ * ring is warmed up, misses should stop going up.</p>
+ * @author Skyler
+ */
+public class FramePool {
+
+	/**
+	 * Biggest frame we'll ever build: 254 bytes of data plus 5 header bytes and the FS byte.
+	 */
+	public static final int FRAME_CAPACITY = 254 + 6;
+
+	private byte[][] free;
+	private int freeCount;
+
+	private long hits, misses, outstanding;
+
+	/**
+	 * @param maxPooled The most arrays the pool will hold on to. Anything released past that is left for the GC
+	 */
+	public FramePool(int maxPooled) {
+		free = new byte[maxPooled][];
+		freeCount = 0;
+		hits = 0;
+		misses = 0;
+		outstanding = 0;
+	}
+
+	/**
+	 * Hands out an array at least {@link #FRAME_CAPACITY} bytes long. Its contents are whatever the last user
+	 * left in it.
+	 * @return
+	 */
+	public synchronized byte[] acquire() {
+		outstanding++;
+		if (freeCount > 0) {
+			hits++;
+			freeCount--;
+			byte[] frame = free[freeCount];
+			free[freeCount] = null;
+			return frame;
+		}
+
+		misses++;
+		return new byte[FRAME_CAPACITY];
+	}
+
+	/**
+	 * Gives an array back to the pool. Only arrays that came from {@link #acquire()} should be released, and only
+	 * once.
+	 * @param frame
+	 */
+	public synchronized void release(byte[] frame) {
+		if (frame == null || frame.length < FRAME_CAPACITY) {
+			return;
+		}
+
+		outstanding--;
+		if (freeCount < free.length) {
+			free[freeCount] = frame;
+			freeCount++;
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return How many arrays are acquired but not released yet
+	 */
+	public synchronized long getOutstanding() {
+		return outstanding;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "hits=" + hits + ", misses=" + misses + ", outstanding=" + outstanding + ", pooled=" + freeCount;
+	}
+
+}
@@ -0,0 +1,291 @@
+package com.smanzana.Project3.Frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable, instance-based look at a frame sitting somewhere in a {@link ByteBuffer}.<br />
+ * This does the same job as the static {@link Frame} and {@link Frame.Header} helpers, but never copies
+ * anything out of the buffer. A node keeps one of these around and {@link #wrap(ByteBuffer, int) points it} at
+ * each new frame as it comes in, reads the fields straight out of the buffer, flips whatever bits it needs to
+ * (like the FS byte or the monitor bit) in place, and then forwards the exact same bytes.
+ * <p>A view is only good for as long as the bytes it points at are left alone. Once whoever owns the buffer
+ * reuses that space, the view has to be re-wrapped.</p>
+ * <p>Unlike {@link Frame.Header#getPriority(byte[])}, {@link #getPriority()} here returns the actual priority
+ * (0 to 7) instead of the masked AC byte.</p>
+ * @author Skyler
+ */
+public final class FrameView {
+
+	private ByteBuffer buffer;
+	private int offset;
+
+	public FrameView() {
+		buffer = null;
+		offset = 0;
+	}
+
+	/**
+	 * Points this view at the frame starting at <i>offset</i> in <i>buffer</i>. No checking is done here;
+	 * the caller should already know a whole frame is there.
+	 * @param buffer
+	 * @param offset Absolute index of the AC byte
+	 * @return this view, for convenience
+	 */
+	public FrameView wrap(ByteBuffer buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+		return this;
+	}
+
+	/**
+	 * Points this view at a frame sitting in a plain byte array.
+	 * @param frame
+	 * @param offset
+	 * @return this view
+	 */
+	public FrameView wrap(byte[] frame, int offset) {
+		if (buffer == null || !buffer.hasArray() || buffer.array() != frame) {
+			buffer = ByteBuffer.wrap(frame);
+		}
+		this.offset = offset;
+		return this;
+	}
+
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return Absolute index of this frame's first byte in the {@link #buffer() buffer}
+	 */
+	public int offset() {
+		return offset;
+	}
+
+	/**
+	 * Same rules as {@link Frame.Header#isToken(byte[])}: the token bit in the AC byte and the whole FC byte
+	 * have to agree.
+	 * @return
+	 */
+	public boolean isToken() {
+		return (buffer.get(offset) & 16) == 0 && buffer.get(offset + 1) == 0;
+	}
+
+	/**
+	 * @see Frame.Header#isKill(byte[])
+	 */
+	public boolean isKill() {
+		return buffer.get(offset + 1) == 2;
+	}
+
+	/**
+	 * @see Frame.Header#isFinish(byte[])
+	 */
+	public boolean isFinish() {
+		return buffer.get(offset + 1) == 3;
+	}
+
+	/**
+	 * @see Frame.Header#isSequenced(byte[])
+	 */
+	public boolean isSequenced() {
+		return buffer.get(offset + 1) == 4;
+	}
+
+	/**
+	 * @see Frame.Header#isBatch(byte[])
+	 */
+	public boolean isBatch() {
+		return buffer.get(offset + 1) == 5;
+	}
+
+	/**
+	 * @see Frame.Header#isFragment(byte[])
+	 */
+	public boolean isFragment() {
+		return buffer.get(offset + 1) == 6;
+	}
+
+	/**
+	 * @see Frame.Header#isPurge(byte[])
+	 */
+	public boolean isPurge() {
+		return buffer.get(offset + 1) == 7;
+	}
+
+	/**
+	 * @see Frame.Header#isMonitorPresent(byte[])
+	 */
+	public boolean isMonitorPresent() {
+		return buffer.get(offset + 1) == 8;
+	}
+
+	/**
+	 * @see Frame.Header#isClaim(byte[])
+	 */
+	public boolean isClaim() {
+		return buffer.get(offset + 1) == 9;
+	}
+
+	/**
+	 * @return Which message this fragment is part of. Only means anything for a {@link #isFragment() fragment}
+	 */
+	public int getMessageNumber() {
+		int at = dataOffset() + Frame.sequenceLength;
+		return ((buffer.get(at) & 0xFF) << 8) | (buffer.get(at + 1) & 0xFF);
+	}
+
+	/**
+	 * @return Which piece of its message this fragment is, starting at 0
+	 */
+	public int getFragmentIndex() {
+		return buffer.get(dataOffset() + Frame.sequenceLength + 2) & 0xFF;
+	}
+
+	/**
+	 * @return How many fragments the message was split into
+	 */
+	public int getFragmentCount() {
+		return buffer.get(dataOffset() + Frame.sequenceLength + 3) & 0xFF;
+	}
+
+	/**
+	 * @return The sequence number at the front of the data section (0 to 65535). Only means anything if
+	 * {@link #hasSequence()}
+	 */
+	public int getSequence() {
+		return ((buffer.get(offset + Frame.headerLength) & 0xFF) << 8) | (buffer.get(offset + Frame.headerLength + 1) & 0xFF);
+	}
+
+	/**
+	 * @return The priority stored in the top three bits of the AC byte, from 0 to 7
+	 */
+	public byte getPriority() {
+		return (byte) ((buffer.get(offset) >> 5) & 7);
+	}
+
+	public boolean getMonitor() {
+		return (buffer.get(offset) & 8) == 8;
+	}
+
+	/**
+	 * Sets or clears the monitor bit in place.
+	 * @param monitor
+	 */
+	public void setMonitor(boolean monitor) {
+		byte AC = buffer.get(offset);
+		if (monitor) {
+			AC = (byte) (AC | 8); //XXXX XXXX | 0000 1000
+		} else {
+			AC = (byte) (AC & ~8);
+		}
+		buffer.put(offset, AC);
+	}
+
+	/**
+	 * @return The reservation bits (right-most 3 in the AC byte)
+	 */
+	public byte getReservation() {
+		return (byte) (buffer.get(offset) & 7);
+	}
+
+	/**
+	 * Sets the reservation bits in place.
+	 * @param reservation 0 to 7
+	 */
+	public void setReservation(int reservation) {
+		buffer.put(offset, (byte) ((buffer.get(offset) & ~7) | (reservation & 7)));
+	}
+
+	public byte getDestination() {
+		return buffer.get(offset + 2);
+	}
+
+	public byte getSource() {
+		return buffer.get(offset + 3);
+	}
+
+	/**
+	 * Unlike {@link Frame.Header#getSize(byte[])}, this is already unsigned (0 to 255).
+	 * @return
+	 */
+	public int getSize() {
+		return buffer.get(offset + 4) & 0xFF;
+	}
+
+	/**
+	 * @return Absolute index of the first data byte in the {@link #buffer() buffer}
+	 */
+	public int dataOffset() {
+		return offset + Frame.headerLength;
+	}
+
+	/**
+	 * @return Absolute index of the first byte of the actual message, past the sequence number if there is one
+	 */
+	public int payloadOffset() {
+		if (isFragment()) {
+			return dataOffset() + Frame.fragmentHeaderLength;
+		}
+		return hasSequence() ? dataOffset() + Frame.sequenceLength : dataOffset();
+	}
+
+	/**
+	 * @return How many bytes of the data section are the actual message, not counting the sequence number
+	 */
+	public int getPayloadSize() {
+		return getSize() - (payloadOffset() - dataOffset());
+	}
+
+	/**
+	 * Whether this frame actually carries a sequence number. A sequenced frame too short to hold one is just
+	 * treated as all data. Batch frames and fragments always have one.
+	 * @return
+	 */
+	public boolean hasSequence() {
+		return (isSequenced() || isBatch() || isFragment()) && getSize() >= Frame.sequenceLength;
+	}
+
+	/**
+	 * @return The FS byte, found right after the data
+	 */
+	public byte getFrameStatus() {
+		return buffer.get(offset + Frame.headerLength + getSize());
+	}
+
+	public void setFrameStatus(byte FS) {
+		buffer.put(offset + Frame.headerLength + getSize(), FS);
+	}
+
+	/**
+	 * @return The number of bytes the whole frame takes up: header, data and FS byte
+	 */
+	public int length() {
+		return Frame.headerLength + getSize() + 1;
+	}
+
+	/**
+	 * Copies the data section out into a new array. Only for when a copy is really needed.
+	 * @return
+	 */
+	public byte[] copyData() {
+		byte[] data = new byte[getSize()];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = buffer.get(dataOffset() + i);
+		}
+		return data;
+	}
+
+	/**
+	 * Copies the whole frame out into a new array, in the same layout the static {@link Frame} helpers expect.
+	 * @return
+	 */
+	public byte[] toBytes() {
+		byte[] frame = new byte[length()];
+		for (int i = 0; i < frame.length; i++) {
+			frame[i] = buffer.get(offset + i);
+		}
+		return frame;
+	}
+
+}
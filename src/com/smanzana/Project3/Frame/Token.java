@@ -1,5 +1,7 @@
 package com.smanzana.Project3.Frame;
 
+import java.nio.ByteBuffer;
+
 /**
  * Represents the token.<br />
  * This class is used to preserve token bit status between nodes. It also provides an easy way to manipulate the token
@@ -39,6 +41,32 @@ public class Token {
 		size = token[4];
 	}
 	
+	/**
+	 * Creates a token from a token frame sitting in a buffer somewhere. Same assumptions as
+	 * {@link #Token(byte[])}.
+	 * @param view A view already pointing at the token frame
+	 */
+	public Token(FrameView view) {
+		this();
+		load(view);
+	}
+	
+	/**
+	 * Overwrites this token's bits with the ones in the token frame the view points at.<br />
+	 * This lets a node keep reusing one Token object instead of making a new one every time the token comes by.
+	 * @param view
+	 */
+	public void load(FrameView view) {
+		ByteBuffer buffer = view.buffer();
+		int offset = view.offset();
+		AC = buffer.get(offset);
+		FC = buffer.get(offset + 1);
+		DA = buffer.get(offset + 2);
+		SA = buffer.get(offset + 3);
+		size = buffer.get(offset + 4);
+		FS = buffer.get(offset + 5);
+	}
+	
 	/**
 	 * Private constructor for setting up defaults in the case an invalid token frame is handed to the regular constructor
 	 */
@@ -54,6 +82,18 @@ public class Token {
 	public byte[] asBytes() {
 		byte token[] = new byte[6];
 		
+		writeTo(token);
+		
+		return token;
+	}
+	
+	/**
+	 * Writes the token's 6 bytes into the start of the passed array, which has to be at least that long.<br />
+	 * Handy with a {@link FramePool} array, so passing the token doesn't need a new array every time.
+	 * @param token
+	 * @return How many bytes were written (always 6)
+	 */
+	public int writeTo(byte[] token) {
 		token[0] = AC;
 		token[1] = FC;
 		token[2] = DA;
@@ -61,7 +101,31 @@ public class Token {
 		token[4] = (byte) size;
 		token[5] = FS;
 		
-		return token;
+		return 6;
+	}
+	
+	/**
+	 * @return The token's priority, from the top 3 bits of the AC byte (0 to 7). Only frames at least this
+	 * important can be sent with this token
+	 */
+	public int getPriority() {
+		return (AC >> 5) & 7;
+	}
+	
+	public void setPriority(int priority) {
+		AC = (byte) ((AC & 31) | ((priority & 7) << 5)); //keep the bottom 5 bits, replace the top 3
+	}
+	
+	/**
+	 * @return The reservation bits (bottom 3 of the AC byte). This is the priority some node down the line is
+	 * waiting to send at
+	 */
+	public int getReservation() {
+		return AC & 7;
+	}
+	
+	public void setReservation(int reservation) {
+		AC = (byte) ((AC & ~7) | (reservation & 7));
 	}
 	
 	public void setUsed(boolean usedBit) {
@@ -0,0 +1,26 @@
+package com.smanzana.Project3.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up. Adding to it never locks, and it's cheap even when lots of threads (event loops, the
+ * export thread) touch it at once.
+ * @author Skyler
+ */
+public class Counter {
+
+	private final LongAdder count = new LongAdder();
+
+	public void increment() {
+		count.increment();
+	}
+
+	public void add(long amount) {
+		count.add(amount);
+	}
+
+	public long get() {
+		return count.sum();
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.smanzana.Project3.Metrics;
+
+/**
+ * A value that goes up and down, like how many frames a node has queued. Whoever owns the value sets it now and
+ * then; whoever exports it just reads the last one.
+ * @author Skyler
+ */
+public class Gauge {
+
+	private volatile long value;
+
+	public void set(long value) {
+		this.value = value;
+	}
+
+	public long get() {
+		return value;
+	}
+
+}
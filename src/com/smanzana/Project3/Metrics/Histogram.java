@@ -0,0 +1,115 @@
+package com.smanzana.Project3.Metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how a value (usually a time in nanoseconds) is spread out, so we can ask for percentiles and not just the
+ * average.<br />
+ * Works like an HdrHistogram with fixed precision: values under {@link #LINEAR} get a bucket each, and past that
+ * every power of two is split into {@link #SUB_BUCKETS} equal buckets. So a value is always known to within about
+ * 3%, from nanoseconds up to years, in under two thousand buckets. Recording is one atomic increment per value
+ * (plus the count, sum and max), no locks.
+ * <p>Reading while values are being recorded is fine. The answer might be off by whatever's being recorded right
+ * then.</p>
+ * @author Skyler
+ */
+public class Histogram {
+
+	private static final int SUB_BITS = 5;
+
+	/**
+	 * How many buckets each power of two is split into past {@link #LINEAR}
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/**
+	 * Values below this get a bucket to themselves
+	 */
+	public static final int LINEAR = SUB_BUCKETS * 2;
+
+	private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder(), sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value Anything below 0 is counted as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+
+		long highest = max.get();
+		while (value > highest && !max.compareAndSet(highest, value)) {
+			highest = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public double getMean() {
+		long total = count.sum();
+		return total == 0 ? 0 : (double) sum.sum() / total;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile From 0 to 100
+	 * @return The highest value that could be in the bucket the percentile falls in. 0 if nothing's been recorded
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long wanted = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= wanted) {
+				return Math.min(highest(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	private static int bucket(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		int top = (int) (value >>> shift); //from SUB_BUCKETS up to (but not including) LINEAR
+		return LINEAR + (shift - 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+	}
+
+	/**
+	 * @return The biggest value that goes in bucket <i>index</i>
+	 */
+	private static long highest(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+		long top = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((top + 1) << shift) - 1;
+	}
+
+}
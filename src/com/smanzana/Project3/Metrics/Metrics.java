@@ -0,0 +1,182 @@
+package com.smanzana.Project3.Metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Every {@link Counter}, {@link Gauge} and {@link Histogram} in the process, by name, so ring health can be watched
+ * without picking through everything the nodes print.<br />
+ * Names can carry labels the same way Prometheus does it, like <code>frames_sent{node="3"}</code>.
+ * {@link #name(String, byte)} builds the usual per-node ones. Asking for a name that's already there hands back
+ * the same metric.
+ * <p>Everything can be written out as plain text, one value per line, sorted by name. Histograms come out as
+ * several lines: their count, mean, 50th/90th/99th percentile and max. That text can be served over HTTP
+ * ({@link #serve(int)}) and printed every so often ({@link #dumpEvery(long, PrintStream)}).</p>
+ * @author Skyler
+ */
+public class Metrics {
+
+	private ConcurrentSkipListMap<String, Object> metrics;
+
+	private HttpServer server;
+
+	public Metrics() {
+		metrics = new ConcurrentSkipListMap<String, Object>();
+		server = null;
+	}
+
+	/**
+	 * @param base
+	 * @param node
+	 * @return The name of <i>base</i> for one node, like <code>frames_sent{node="3"}</code>. Addresses are
+	 * unsigned
+	 */
+	public static String name(String base, byte node) {
+		return base + "{node=\"" + (node & 0xFF) + "\"}";
+	}
+
+	public Counter counter(String name) {
+		Object metric = metrics.get(name);
+		if (metric == null) {
+			metric = add(name, new Counter());
+		}
+		if (!(metric instanceof Counter)) {
+			throw mismatch(name, metric);
+		}
+		return (Counter) metric;
+	}
+
+	public Gauge gauge(String name) {
+		Object metric = metrics.get(name);
+		if (metric == null) {
+			metric = add(name, new Gauge());
+		}
+		if (!(metric instanceof Gauge)) {
+			throw mismatch(name, metric);
+		}
+		return (Gauge) metric;
+	}
+
+	public Histogram histogram(String name) {
+		Object metric = metrics.get(name);
+		if (metric == null) {
+			metric = add(name, new Histogram());
+		}
+		if (!(metric instanceof Histogram)) {
+			throw mismatch(name, metric);
+		}
+		return (Histogram) metric;
+	}
+
+	/**
+	 * @return Whichever metric ends up with the name, in case somebody else added it first
+	 */
+	private Object add(String name, Object metric) {
+		Object existing = metrics.putIfAbsent(name, metric);
+		return existing == null ? metric : existing;
+	}
+
+	private IllegalArgumentException mismatch(String name, Object metric) {
+		return new IllegalArgumentException("Metric " + name + " is already a " + metric.getClass().getSimpleName());
+	}
+
+	/**
+	 * Writes every metric out as text, one value per line.
+	 * @param out
+	 */
+	public void writeTo(StringBuilder out) {
+		for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+			String name = entry.getKey();
+			Object metric = entry.getValue();
+			if (metric instanceof Counter) {
+				out.append(name).append(' ').append(((Counter) metric).get()).append('\n');
+			} else if (metric instanceof Gauge) {
+				out.append(name).append(' ').append(((Gauge) metric).get()).append('\n');
+			} else {
+				Histogram histogram = (Histogram) metric;
+				int split = name.indexOf('{');
+				String base = split == -1 ? name : name.substring(0, split);
+				String labels = split == -1 ? "" : name.substring(split);
+				out.append(base).append("_count").append(labels).append(' ').append(histogram.getCount()).append('\n');
+				out.append(base).append("_mean").append(labels).append(' ')
+						.append(String.format("%.1f", histogram.getMean())).append('\n');
+				out.append(base).append("_p50").append(labels).append(' ').append(histogram.getPercentile(50)).append('\n');
+				out.append(base).append("_p90").append(labels).append(' ').append(histogram.getPercentile(90)).append('\n');
+				out.append(base).append("_p99").append(labels).append(' ').append(histogram.getPercentile(99)).append('\n');
+				out.append(base).append("_max").append(labels).append(' ').append(histogram.getMax()).append('\n');
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		writeTo(out);
+		return out.toString();
+	}
+
+	/**
+	 * Starts serving the metrics as text at <code>http://127.0.0.1:<i>port</i>/metrics</code>, on a thread of its
+	 * own. Only local connections can reach it.
+	 * @param port
+	 * @throws IOException if the port can't be used
+	 */
+	public void serve(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = Metrics.this.toString().getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		System.out.println("Serving metrics at http://127.0.0.1:" + port + "/metrics");
+	}
+
+	/**
+	 * Prints every metric to <i>out</i> every <i>interval</i> milliseconds, from a background thread that won't keep
+	 * the program running.
+	 * @param interval
+	 * @param out
+	 */
+	public void dumpEvery(final long interval, final PrintStream out) {
+		Thread dumper = new Thread(new Runnable() {
+			public void run() {
+				while (true) {
+					try {
+						Thread.sleep(interval);
+					} catch (InterruptedException e) {
+						return;
+					}
+					out.print("=== metrics ===\n" + Metrics.this);
+				}
+			}
+		}, "MetricsDump");
+		dumper.setDaemon(true);
+		dumper.start();
+	}
+
+	/**
+	 * Stops serving over HTTP, if we were.
+	 */
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+}
@@ -0,0 +1,446 @@
+package com.smanzana.Project3.Node;
+
+import com.smanzana.Project3.Project3;
+import com.smanzana.Project3.Frame.FrameView;
+import com.smanzana.Project3.Frame.Token;
+import com.smanzana.Project3.Metrics.Counter;
+import com.smanzana.Project3.Metrics.Gauge;
+import com.smanzana.Project3.Metrics.Histogram;
+import com.smanzana.Project3.Metrics.Metrics;
+
+/**
+ * Everything the active monitor does to keep the ring healthy, kept apart from the node doing it so that any node
+ * can take the job over.<br />
+ * The {@link Monitor} has this job from the start. Every other node is a standby monitor: if they stop seeing the
+ * active monitor's {@link com.smanzana.Project3.Frame.Frame.Header#isMonitorPresent(byte[]) present frames}, they
+ * hold an election with {@link com.smanzana.Project3.Frame.Frame.Header#isClaim(byte[]) claim frames}, and the
+ * winner gets one of these.
+ * <p>The duties are:</p>
+ * <ul>
+ * <li>Noticing that the token's been lost (nothing's come by in longer than the token takes to go around), and
+ * purging the ring to put out a new one</li>
+ * <li>Draining orphaned frames, which come by a second time when their source didn't drain them</li>
+ * <li>Purging the ring when a frame's too broken to pass on</li>
+ * <li>Lowering a token stuck at a high priority</li>
+ * <li>Issuing the finish frame once nobody's used the ring in a whole trip of the token</li>
+ * <li>Letting the standbys know there's still an active monitor, every {@link #PRESENT_INTERVAL} milliseconds</li>
+ * </ul>
+ * <p>The node doing the job calls {@link #present()} every step, whether or not anything's coming in, hands every
+ * frame to {@link #frame(FrameView)} before it does anything else with it, calls {@link #token(Token)} when the
+ * token comes by, and calls {@link #idle()} when nothing comes in.</p>
+ * @author Skyler
+ */
+public class ActiveMonitor {
+
+	/**
+	 * Returned by {@link #frame(FrameView)} when the node should go on and handle the frame like it normally would
+	 */
+	public static final int PASS = -1;
+
+	/**
+	 * How many trips in a row the token can come by with a raised priority and no reservations before we lower it
+	 * ourselves. The node that raised it should always bring it down within one trip
+	 */
+	public static final int STUCK_PRIORITY_TRIPS = 3;
+
+	/**
+	 * Bounds on how long we go without seeing a frame before deciding the token was lost, in milliseconds. Until
+	 * we've timed the token going around once, we wait the initial timeout
+	 */
+	public static final int MIN_TOKEN_TIMEOUT = 20, INITIAL_TOKEN_TIMEOUT = 500, MAX_TOKEN_TIMEOUT = 10000;
+
+	/**
+	 * How many deviations past the average trip we allow before calling the token lost
+	 */
+	public static final int TOKEN_TIMEOUT_DEVIATIONS = 4;
+
+	/**
+	 * How often we tell the standbys we're still here, in milliseconds. A standby waits
+	 * {@link Node#STANDBY_TIMEOUT} before trying to take over, so a few of these have to go missing first
+	 */
+	public static final int PRESENT_INTERVAL = 100;
+
+	private Node node;
+	private boolean finished;
+
+	/**
+	 * When we last saw a frame come in. Used to decide when the token has been lost
+	 */
+	private long lastFrameTime;
+
+	/**
+	 * When we next tell the standbys we're here
+	 */
+	private long nextPresent;
+
+	/**
+	 * How many trips in a row the token has come by with a raised priority and no reservations
+	 */
+	private int stuckPriority;
+
+	/**
+	 * Smoothed time the token takes to go around the ring and how much that varies, in nanoseconds. This is kept
+	 * the same way TCP keeps its round trip time. -1 until we've timed a trip
+	 */
+	private long rotation, rotationDeviation;
+
+	/**
+	 * When we last passed the token on, if we're timing its trip. Long.MIN_VALUE if we aren't
+	 */
+	private long tokenSent;
+
+	/**
+	 * How many times we've decided the token was lost since we last timed a trip. Each one doubles the timeout
+	 */
+	private int losses;
+
+	/**
+	 * When we sent out the purge we're waiting on, in nanoseconds. Long.MIN_VALUE if we aren't purging
+	 */
+	private long purgeStarted;
+
+	/**
+	 * If we just took over from another active monitor, when that one was last heard from, in milliseconds.
+	 * Long.MIN_VALUE otherwise
+	 */
+	private long takenOverFrom;
+
+	/**
+	 * Tokens we decided were lost, orphaned frames we drained, frames too broken to pass on, and times we had to
+	 * lower a stuck priority
+	 */
+	private Counter tokensLost, orphans, invalid, priorityLowered;
+
+	/**
+	 * The smoothed rotation time we're going by, in nanoseconds
+	 */
+	private Gauge rotationGauge;
+
+	/**
+	 * Purges we've done, frames they threw away, and how long each took from sending the purge to putting a new
+	 * token out (in nanoseconds)
+	 */
+	private Counter purges, purged;
+	private Histogram purgeTime;
+
+	/**
+	 * How long the ring went without an active monitor each time we took over, in milliseconds
+	 */
+	private Histogram failover;
+
+	public ActiveMonitor(Node node) {
+		this.node = node;
+		finished = false;
+		stuckPriority = 0;
+		rotation = -1;
+		rotationDeviation = 0;
+		tokenSent = Long.MIN_VALUE;
+		losses = 0;
+		purgeStarted = Long.MIN_VALUE;
+		takenOverFrom = Long.MIN_VALUE;
+		start();
+
+		byte address = node.address;
+		tokensLost = Project3.metrics.counter(Metrics.name("tokens_lost", address));
+		orphans = Project3.metrics.counter(Metrics.name("orphans_drained", address));
+		invalid = Project3.metrics.counter(Metrics.name("frames_invalid", address));
+		priorityLowered = Project3.metrics.counter(Metrics.name("priority_lowered", address));
+		rotationGauge = Project3.metrics.gauge(Metrics.name("token_rotation_smoothed_ns", address));
+		purges = Project3.metrics.counter(Metrics.name("purges", address));
+		purged = Project3.metrics.counter(Metrics.name("frames_purged", address));
+		purgeTime = Project3.metrics.histogram(Metrics.name("purge_ns", address));
+		failover = Project3.metrics.histogram(Metrics.name("failover_ms", address));
+	}
+
+	/**
+	 * Starts the clock on losing the token, and tells the standbys we're here right away. Call once the node is
+	 * hooked up to the ring.
+	 */
+	public void start() {
+		lastFrameTime = node.clock.millis();
+		nextPresent = lastFrameTime;
+	}
+
+	/**
+	 * Takes over for an active monitor that's gone quiet. Whatever's out on the ring is purged first, since there's
+	 * no telling what state it's in, and then we put out a new token.
+	 * @param lastHeard When the old active monitor was last heard from, in milliseconds
+	 */
+	public void takeOver(long lastHeard) {
+		start();
+		takenOverFrom = lastHeard;
+		System.out.println("Node [" + node.address + "] won the claim and is the active monitor now!\n"
+				+ "Purging the ring...");
+		purge();
+	}
+
+	/**
+	 * Lets the standbys know we're here if it's been long enough. This goes by the clock and not by how quiet the
+	 * ring is, since a busy ring needs its monitor just as much and the standbys can't tell the difference.
+	 * @return {@link Node#STEP_BUSY} if we sent a present frame, {@link Node#STEP_IDLE} otherwise
+	 */
+	public int present() {
+		long now = node.clock.millis();
+		if (now < nextPresent) {
+			return Node.STEP_IDLE;
+		}
+		nextPresent = now + PRESENT_INTERVAL;
+		node.passControl(8);
+		return Node.STEP_BUSY;
+	}
+
+	/**
+	 * Nothing came in. Decides whether the token has been lost.
+	 * @return {@link Node#STEP_BUSY} if we sent something, {@link Node#STEP_IDLE} otherwise
+	 */
+	public int idle() {
+		long now = node.clock.millis();
+
+		//Once we've waited the longest it should take for the token to go around, the token was dropped
+		//somewhere and we need to generate a new one
+		if (now - lastFrameTime < tokenTimeout()) {
+			return Node.STEP_IDLE;
+		}
+
+		lastFrameTime = now;
+		if (finished) {
+			System.out.print("#");
+			return Node.STEP_BUSY;
+		}
+		losses++;
+		if (purgeStarted == Long.MIN_VALUE) {
+			tokensLost.increment();
+			System.out.println("Monitor has detected that the token was dropped!\nPurging the ring...");
+		} else {
+			System.out.println("Monitor's purge never came back around! Purging again...");
+		}
+		purge();
+		return Node.STEP_BUSY;
+	}
+
+	/**
+	 * Looks at a frame that just came in, other than a kill frame, before the node does anything with it.
+	 * Anything that's only the monitor's business is dealt with here. Data frames that are fine get their monitor
+	 * bit set, so we'll know if they come by again.
+	 * @param frame
+	 * @return {@link #PASS} if the node should go on and handle the frame, or what its step should return if
+	 * we've dealt with it
+	 */
+	public int frame(FrameView frame) {
+		int source = frame.getSource() & 0xFF, us = node.address & 0xFF;
+		if (frame.isMonitorPresent()) {
+			if (source == us) {
+				return Node.STEP_BUSY; //ours, back around
+			}
+			if (source > us) {
+				//there's another active monitor, and it outranks us
+				System.out.println("Node [" + node.address + "] found active monitor [" + frame.getSource()
+						+ "] and is going back to standby");
+				node.duties = null;
+				return PASS;
+			}
+			return Node.STEP_BUSY; //one that'll go back to standby once it sees ours
+		}
+		if (frame.isClaim()) {
+			//somebody thinks we're gone. We aren't, so their claim stops here, and we tell them so
+			nextPresent = node.clock.millis() + PRESENT_INTERVAL;
+			node.passControl(8);
+			return Node.STEP_BUSY;
+		}
+
+		lastFrameTime = node.clock.millis();
+
+		if (purgeStarted != Long.MIN_VALUE) {
+			//we're purging. Nothing but our purge frame gets through, not even an old token
+			if (frame.isPurge() && source == us) {
+				//it made it all the way around, so the ring's empty now
+				long took = node.clock.nanos() - purgeStarted;
+				purgeStarted = Long.MIN_VALUE;
+				purgeTime.record(took);
+				System.out.println("Ring purged in " + (took / 1000) + " us. Monitor issuing new token.");
+				regenerateToken();
+				if (takenOverFrom != Long.MIN_VALUE) {
+					long gap = node.clock.millis() - takenOverFrom;
+					takenOverFrom = Long.MIN_VALUE;
+					failover.record(gap);
+					System.out.println("Node [" + node.address + "] has taken over as active monitor. The ring went "
+							+ gap + " ms without one.");
+				}
+			} else {
+				purged.increment();
+			}
+			return Node.STEP_BUSY;
+		}
+		if (frame.isPurge()) {
+			//an extra purge from when we thought the first one was lost. It's done its job already
+			return Node.STEP_BUSY;
+		}
+
+		if (frame.isToken()) {
+			return PASS;
+		}
+
+		//Just a regular frame. Error checking!
+		//make sure it's a valid frame. We read exactly as many bytes as the size said, so the only size that
+		//can be wrong is one that's bigger than the protocol allows
+		if (frame.getSize() > 254) {
+			invalid.increment();
+			System.out.print("Monitor found error in frame from [" + frame.getSource() + "]!\n"
+					+ "Sizes do not match!\n"
+					+ "Purging ring...");
+			purge();
+			return Node.STEP_BUSY;
+		}
+		//next, make sure it hasn't been orphaned (been to the monitor node twice, indicating it wasn't drained by its source)
+		if (frame.getMonitor()) { //if monitor bit is set to 1, indicating we've seen it already
+			orphans.increment();
+			System.out.println("Monitor found orphaned frame with source [" + frame.getSource() + "]!\n"
+					+ "Draining..");
+			return Node.STEP_BUSY; //draining means just don't retransmit it
+		}
+
+		//We do take time here to quickly set the monitor bit to 1 to indicate we've seen this frame before
+		frame.setMonitor(true); //XXXX XXXX | 0000 1000 = XXXX 1XXXX  -- set the monitor bit to 1 and leave everything else the same
+		return PASS;
+	}
+
+	/**
+	 * Looks over the token when it comes by, once the node's loaded it.
+	 * @param token
+	 * @return true if we drained the token because the ring is finished, in which case the node shouldn't do
+	 * anything else with it
+	 */
+	public boolean token(Token token) {
+		if (tokenSent != Long.MIN_VALUE) {
+			timeRotation(node.clock.nanos() - tokenSent);
+			tokenSent = Long.MIN_VALUE;
+		}
+
+		//A token stuck at a high priority with nobody asking for it means whoever raised it isn't bringing it back
+		//down (they were probably killed, or the token they raised got lost). After a few trips, do it for them
+		if (token.getPriority() > 0 && token.getReservation() == 0) {
+			stuckPriority++;
+			if (stuckPriority >= STUCK_PRIORITY_TRIPS) {
+				System.out.println("Monitor lowering token stuck at priority " + token.getPriority());
+				priorityLowered.increment();
+				token.setPriority(0);
+				stuckPriority = 0;
+			}
+		} else {
+			stuckPriority = 0;
+		}
+
+		//Behind the scenes magic.
+		//We store extra information in the token. To figure out if anyone is using the ring (and if not, close it)
+		//we use the most significant bit in the FS byte to denote whether any node transmitted data (the ring is in use)
+		//if it comes to the monitor as 0, no nodes used it since it was last at the monitor
+		if (token.wasUsed()) {
+			//it was set. The ring is in use.
+			//set it bck to 0
+			token.setUsed(false);
+			return false;
+		}
+		if (node.hasWork()) {
+			return false; //nobody else used it, but we're about to
+		}
+
+		//else the ring is not in use and the token needs be drained. In it's place, issue a FINISH TOKEN
+		//defined (by me) to be a token with the value 3 for the FC byte
+		node.passFinish();
+		System.out.println("Issued a finish frame!");
+		finished = true;
+		//don't send the token, effectively draining it from the ring.
+		return true;
+	}
+
+	/**
+	 * The node just passed the token on. Starts timing its trip around the ring.
+	 */
+	public void tokenPassed() {
+		tokenSent = node.clock.nanos();
+	}
+
+	/**
+	 * @return When we next need to do something if nothing comes in: tell the standbys we're here, or decide the
+	 * token's been lost. In milliseconds
+	 */
+	public long nextDeadline() {
+		return Math.min(nextPresent, lastFrameTime + tokenTimeout());
+	}
+
+	/**
+	 * @return Whether we've issued the finish frame, since nobody had used the ring in a whole trip of the token
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Makes a brand new token and passes it on. Its trip isn't timed: if the old one wasn't really lost, whichever
+	 * comes back first can't be told apart, and timing the wrong one would throw the estimate off.
+	 */
+	private void regenerateToken() {
+		node.token = new Token((byte[]) null); //make generic token
+		node.passToken();
+		tokenSent = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Folds one timed trip of the token into the smoothed rotation time and its deviation, with the same weights
+	 * TCP uses (an eighth for the average, a quarter for the deviation).
+	 * @param trip How long the trip took, in nanoseconds
+	 */
+	private void timeRotation(long trip) {
+		if (rotation < 0) {
+			rotation = trip;
+			rotationDeviation = trip / 2;
+		} else {
+			rotationDeviation += (Math.abs(rotation - trip) - rotationDeviation) / 4;
+			rotation += (trip - rotation) / 8;
+		}
+		rotationGauge.set(rotation);
+		losses = 0; //the ring's working again
+	}
+
+	/**
+	 * @return How long the token should take to get around the ring at most, going by the trips we've timed, in
+	 * milliseconds
+	 */
+	private long rotationTimeout() {
+		if (rotation < 0) {
+			return INITIAL_TOKEN_TIMEOUT;
+		}
+		long timeout = (rotation + TOKEN_TIMEOUT_DEVIATIONS * rotationDeviation + 999999) / 1000000;
+		return Math.min(MAX_TOKEN_TIMEOUT, Math.max(MIN_TOKEN_TIMEOUT, timeout));
+	}
+
+	/**
+	 * @return How long we go without seeing a frame before deciding the token was dropped, in milliseconds. This
+	 * doubles with each loss in a row, so a ring that's just slow isn't flooded with new tokens. It never goes past
+	 * the initial timeout that way though, since a ring that really is losing tokens a lot shouldn't wait any longer
+	 * than it used to. Once the ring's finished there's no token to lose, so this only decides how often we print
+	 * that we're waiting
+	 */
+	private long tokenTimeout() {
+		if (finished) {
+			return INITIAL_TOKEN_TIMEOUT;
+		}
+		long timeout = rotationTimeout();
+		return Math.min(Math.max(timeout, INITIAL_TOKEN_TIMEOUT), timeout << Math.min(losses, 16));
+	}
+
+	/**
+	 * Sends a purge frame around the ring (see {@link com.smanzana.Project3.Frame.Frame.Header#isPurge(byte[])}).
+	 * Until it comes back, everything else we get is thrown away. Then we put out a new token.<br />
+	 * If we're already purging, this just sends another one, in case the first went missing.
+	 */
+	private void purge() {
+		if (purgeStarted == Long.MIN_VALUE) {
+			purgeStarted = node.clock.nanos();
+			purges.increment();
+		}
+		node.giveUpToken(); //if we were holding it, it's about to be replaced
+		node.passControl(7);
+	}
+
+}
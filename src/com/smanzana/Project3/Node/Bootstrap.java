@@ -0,0 +1,107 @@
+package com.smanzana.Project3.Node;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.smanzana.Project3.Project3;
+import com.smanzana.Project3.Metrics.Metrics;
+
+/**
+ * Hooks a whole ring up at once.<br />
+ * Every node claims its port first, all from the calling thread. Then every node gets a short-lived thread of its
+ * own for {@link Node#setup()}, which connects it to the next node (trying again with backoff if that one isn't
+ * bound somehow) and waits for the node before it to connect. Since every port is already bound, nobody waits on a
+ * neighbor to finish its own setup, so a ring is up in about the time one node takes, however big it is.
+ * <p>Once every node is done, this says how long each one took to be ready, and which ones never got hooked up.
+ * The same times go in the metrics: <b>node_ready_ms</b> for each node, and <b>ring_ready_ms</b> and
+ * <b>nodes_ready</b> for the whole ring. A ring with a node that never got hooked up can't pass anything all the
+ * way around, so it shouldn't be started at all: {@link #abort()} closes whatever did get hooked up instead.</p>
+ * @author Skyler
+ */
+public class Bootstrap {
+
+	private List<Node> nodes;
+
+	/**
+	 * @param nodes Every node in the ring, including the monitor and bridge
+	 */
+	public Bootstrap(List<Node> nodes) {
+		this.nodes = new ArrayList<Node>(nodes);
+	}
+
+	/**
+	 * Sets every node up and waits until they're all done.
+	 * @return true if every node ended up hooked up to both of its neighbors
+	 */
+	public boolean run() {
+		final long start = System.nanoTime();
+		for (Node n : nodes) {
+			n.bind();
+		}
+
+		final long[] ready = new long[nodes.size()];
+		List<Thread> setups = new ArrayList<Thread>(nodes.size());
+		for (int i = 0; i < nodes.size(); i++) {
+			final Node n = nodes.get(i);
+			final int index = i;
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					n.setup();
+					ready[index] = System.nanoTime() - start;
+				}
+			}, "Setup-" + (n.address & 0xFF));
+			t.start();
+			setups.add(t);
+		}
+
+		for (Thread t : setups) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+
+		int connected = 0;
+		long slowest = 0;
+		StringBuilder failed = new StringBuilder();
+		for (int i = 0; i < nodes.size(); i++) {
+			Node n = nodes.get(i);
+			long millis = ready[i] / 1000000;
+			if (n.isConnected()) {
+				connected++;
+				slowest = Math.max(slowest, millis);
+				Project3.metrics.gauge(Metrics.name("node_ready_ms", n.address)).set(millis);
+				System.out.println("node " + (n.address & 0xFF) + " ready after " + millis + " ms");
+			} else {
+				System.out.println("node " + (n.address & 0xFF) + " never got hooked up to the ring!");
+				failed.append(failed.length() == 0 ? "" : ", ").append(n.address & 0xFF);
+			}
+		}
+
+		Project3.metrics.gauge("ring_ready_ms").set(slowest);
+		Project3.metrics.gauge("nodes_ready").set(connected);
+		System.out.println(connected + " of " + nodes.size() + " nodes ready after " + slowest + " ms");
+		if (connected < nodes.size()) {
+			System.out.println("Nodes that never got hooked up: " + failed);
+		}
+		return connected == nodes.size();
+	}
+
+	/**
+	 * Kills every node, which closes whatever links they did get hooked up. For when {@link #run()} couldn't get
+	 * the whole ring up, and it isn't going to be started.
+	 */
+	public void abort() {
+		for (Node n : nodes) {
+			try {
+				n.kill();
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println("Error when closing node [" + n.address + "]'s links!");
+			}
+		}
+	}
+
+}
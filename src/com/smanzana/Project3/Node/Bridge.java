@@ -4,20 +4,69 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayDeque;
 
 import com.smanzana.Project3.Project3;
+import com.smanzana.Project3.Bridge.ForwardingTable;
 import com.smanzana.Project3.Frame.Frame;
+import com.smanzana.Project3.Frame.FrameView;
+import com.smanzana.Project3.Metrics.Counter;
+import com.smanzana.Project3.Metrics.Gauge;
+import com.smanzana.Project3.Metrics.Histogram;
+import com.smanzana.Project3.Metrics.Metrics;
+import com.smanzana.Project3.Transport.TcpTransport;
+import com.smanzana.Project3.Utils.ReceiveBuffer;
 
+/**
+ * Our ring's connection to the other rings, through a bridge process (see
+ * {@link com.smanzana.Project3.Bridge.RingBridge}).<br />
+ * The bridge learns which nodes are on our ring from the source of every frame that goes by, and which are across
+ * the bridge from the source of every frame that comes over from it. Only frames that need to get across go:
+ * <ul><li>Frames for a node on our ring just keep going around it</li>
+ * <li>Frames for a node across the bridge get sent over, and go home to their source marked accepted, the way an
+ * 802.5 bridge copies a frame. From then on, getting it there is our job: if the node over there turns it down,
+ * we put it on their ring again</li>
+ * <li>Frames for somebody we haven't placed yet go both ways, since they could be anywhere. The copy sent over is
+ * marked {@link #REPORT}, so whichever ring has the node sends back how it went. That answer is what tells us
+ * the node's across the bridge, and it goes on to the source like any other answer would. Batch frames always go
+ * over like this, since each message in them gets its own answer</li></ul>
+ * Frames from the other side go once around our ring and come back to us, and we take them off. If nobody took
+ * one, its destination isn't on our ring. Frames from the other side for nodes we know aren't here are dropped
+ * instead of going around for nothing.
+ * <p>Tokens and the monitors' frames stay on our ring. Without a bridge process to talk to, the bridge passes
+ * frames for our own nodes along, and kills the ring once the monitor says it's finished. If it's been told who's
+ * on the ring (see {@link #addLocal(byte)}), frames for anybody else have nowhere to go, so it takes them off
+ * their source's hands the same way it would to send them over, and throws them away.</p>
+ * @author Skyler
+ */
 public class Bridge extends Node {
 	
 	/**
-	 * The socket that the remote bridge will send data over
+	 * Which side of the bridge a node is on, in our {@link ForwardingTable}
 	 */
-	private Socket bridgeIn;
+	public static final int LOCAL = 0, REMOTE = 1;
+	
+	/**
+	 * Frame status for a frame going over the bridge whose source wants to hear back about it. Frames that come
+	 * back across with a status of 2 or 3 are those answers
+	 */
+	public static final byte REPORT = 1;
+	
+	/**
+	 * Buffers what the remote bridge sends us
+	 */
+	private ReceiveBuffer bridgeIn;
+	
+	/**
+	 * Reused to look at frames from the remote bridge. The ring side uses the regular {@link Node#view}
+	 */
+	private FrameView bridgeView;
 	
 	/**
 	 * The socket this bridge can send data over
@@ -28,6 +77,51 @@ public class Bridge extends Node {
 	
 	private SocketAddress remoteAddress;
 	
+	/**
+	 * Where everybody is, and how many frames we've put on our ring for each destination that the other side wants
+	 * to hear back about
+	 */
+	private ForwardingTable table;
+	private int[] reports;
+	
+	/**
+	 * Copies of the frames from the other side that are out on our ring and haven't come back yet, oldest first.
+	 * Nobody over there is going to send them again, so if the ring's purged we have to
+	 */
+	private ArrayDeque<byte[]> injected;
+	
+	/**
+	 * Whether the remote bridge told us to kill the ring while frames from the other side were still on it. The
+	 * kill waits for them, since the sources over there already think they got through
+	 */
+	private boolean killWaiting;
+	
+	/**
+	 * How many frames we've passed each way between the ring and the remote bridge, and how long each one took us
+	 * to get back out, from when we had the whole frame
+	 */
+	private Counter toRemote, fromRemote;
+	private Histogram toRemoteTime, fromRemoteTime;
+	
+	/**
+	 * Frames we kept on our ring that would have gone across if we didn't know better, frames from the other side
+	 * we didn't put on our ring because their destination isn't here, and how many nodes we've placed
+	 */
+	private Counter keptLocal, droppedRemote;
+	private Gauge learned;
+	
+	/**
+	 * Whether we were told every node on our ring up front, and how many frames we've thrown away because there's
+	 * no remote bridge and nobody on our ring they're for
+	 */
+	private boolean ringKnown;
+	private Counter undeliverable;
+	
+	/**
+	 * Frames from the other side we had to put on our ring again because a purge threw them out
+	 */
+	private Counter reinjected;
+	
 	public enum STDMessage {
 		FINISH((byte) 1),
 		KILL((byte) 2);
@@ -55,12 +149,41 @@ public class Bridge extends Node {
 	public Bridge(int tokenHoldingTime, byte address, int port, SocketAddress remoteBridgeAddr) {
 		super(tokenHoldingTime, address, port);
 		this.remoteAddress = remoteBridgeAddr;
+		this.bridgeView = new FrameView();
+		toRemote = Project3.metrics.counter(Metrics.name("bridge_to_remote", address));
+		fromRemote = Project3.metrics.counter(Metrics.name("bridge_from_remote", address));
+		toRemoteTime = Project3.metrics.histogram(Metrics.name("bridge_to_remote_ns", address));
+		fromRemoteTime = Project3.metrics.histogram(Metrics.name("bridge_from_remote_ns", address));
+		keptLocal = Project3.metrics.counter(Metrics.name("bridge_kept_local", address));
+		droppedRemote = Project3.metrics.counter(Metrics.name("bridge_dropped_remote", address));
+		learned = Project3.metrics.gauge(Metrics.name("bridge_learned", address));
+		reinjected = Project3.metrics.counter(Metrics.name("bridge_reinjected", address));
+		undeliverable = Project3.metrics.counter(Metrics.name("bridge_undeliverable", address));
+		table = new ForwardingTable();
+		reports = new int[256];
+		injected = new ArrayDeque<byte[]>();
+		killWaiting = false;
+		ringKnown = false;
 	}
 	
+	/**
+	 * Tells the bridge a node is on our ring, so it never has to find out from the node's traffic. Once it's
+	 * told about any, it takes it that it's been told about all of them.
+	 * @param address
+	 */
+	public void addLocal(byte address) {
+		table.learn(address, LOCAL);
+		learned.set(table.size());
+		ringKnown = true;
+	}
+	
+	/**
+	 * Sets up our spot in the ring and then connects to the remote bridge (if we have one).
+	 */
 	@Override
-	public void run() {
+	public void setup() {
 		
-		setup();
+		super.setup();
 		
 		if (remoteAddress == null) {
 			connected = false;
@@ -93,138 +216,123 @@ public class Bridge extends Node {
 				byte offset = (byte) Project3.rand.nextInt(256);
 				int tmpPort = 7000 + offset;
 				
-				ServerSocket sSock;
+				ServerSocketChannel sSock;
 				try {
+					//be listening before we say where, so the remote bridge can't beat us to it
+					sSock = ServerSocketChannel.open();
+					sSock.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+					sSock.bind(new InetSocketAddress("127.0.0.1", tmpPort));
 					sendBridge(new byte[] {offset});
-				sSock = new ServerSocket();
-				sSock.bind(new InetSocketAddress("127.0.0.1", tmpPort));
-				bridgeIn = sSock.accept(); 
-				sSock.close();
+					bridgeIn = new ReceiveBuffer(TcpTransport.wrap(sSock.accept())); //always TCP. The remote bridge is another process
+					sSock.close();
 				} catch (IOException e) {
 					e.printStackTrace();
 					System.out.println("Error when creating bridge's input socket!");
+					connected = false;
 					return;
 				}
 				System.out.println("Bridge has connected to the remote bridge!");
 			}
 		}
-		
-		byte[] frame;
-		while (true) {
+	}
+	
+	/**
+	 * Kills the node, and gives back the copies we were keeping of frames from the other side.
+	 */
+	@Override
+	public void kill() throws IOException {
+		for (byte[] copy : injected) {
+			pool.release(copy);
+		}
+		injected.clear();
+		super.kill();
+	}
+	
+	@Override
+	public boolean register(Selector selector) throws IOException {
+		boolean selectable = super.register(selector);
+		if (bridgeIn != null) {
+			selectable = bridgeIn.register(selector, this) && selectable;
+		}
+		return selectable;
+	}
+	
+	/**
+	 * Handles one frame from either the remote bridge or the ring. The remote bridge gets checked first, but
+	 * we never wait on it. We only wait (up to <i>timeout</i>) on the ring.
+	 */
+	@Override
+	public int step(int timeout) {
+		FrameView frame;
 
-			if (connected) {
-				frame = getBridgeFrame();
-				
-				if (frame != null) {
-					if (processBridgeFrame(frame)) {
-						try {
-							kill();
-						} catch (IOException e) {
-							e.printStackTrace();
-							System.out.println("ERROR when trying to kill bridge!!!!!!");
-						}
-						return;
-					}
-					continue;
-				}
-			}
-			
-			
-			try {
-				frame = getFrame();
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.out.println("Generated error when trying to fetch a frame!");
-				return;
-			}
+		if (connected) {
+			frame = getBridgeFrame();
 			
 			if (frame != null) {
-				if (processRingFrame(frame)) {
+				if (processBridgeFrame(frame)) {
 					try {
 						kill();
 					} catch (IOException e) {
 						e.printStackTrace();
 						System.out.println("ERROR when trying to kill bridge!!!!!!");
 					}
-					return;
+					return STEP_DEAD;
 				}
-				
+				return STEP_BUSY;
 			}
-			
-			//regardless of if we got a ring frame, now try and fetch/process a bridge frame
-			//this is how we avoid starving the bridge of ring. We do one of either if they have it
-			
-//			if (!connected) {
-//				continue;
-//			}
-//			frame = getBridgeFrame();
-//			
-//			if (frame != null) {
-//				if (processBridgeFrame(frame)) {
-//					try {
-//						kill();
-//					} catch (IOException e) {
-//						e.printStackTrace();
-//						System.out.println("ERROR when trying to kill bridge!!!!!!");
-//					}
-//					return;
-//				}
-//				//return;
-//			}
 		}
 		
 		
+		try {
+			frame = getFrame(timeout);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Generated error when trying to fetch a frame!");
+			return STEP_DEAD;
+		}
+		
+		if (frame == null) {
+			return STEP_IDLE;
+		}
+		
+		if (processRingFrame(frame)) {
+			try {
+				kill();
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println("ERROR when trying to kill bridge!!!!!!");
+			}
+			return STEP_DEAD;
+		}
+		
+		//regardless of if we got a ring frame, the next step tries to fetch/process a bridge frame first
+		//this is how we avoid starving the bridge of ring. We do one of either if they have it
+		return STEP_BUSY;
 	}
 	
 	/**
 	 * Gets the next frame from the ring this bridge is part of.<br />
 	 * This <b>does not</b> get a frame from the remote bridge. It only fetches from the ring.
-	 * @return the frame, or null if no frame was ready
+	 * @param timeout How long to wait for the frame's header, in milliseconds
+	 * @return a view of the frame, or null if no frame was ready
 	 * @throws IOException
 	 */
-	private byte[] getFrame() throws IOException {
-		
-		byte[] header = receive(Frame.headerLength, 100);
-		if (header == null) {
-			//no frame ready to be picked up
-			return null;
-		}
-		byte[] body = receive((Frame.Header.getSize(header) & 0xFF) + 1, 200 + (Frame.Header.getSize(header) * 20));
-		
-		byte[] frame = new byte[header.length + body.length];
-		
-		int i;
-		for (i = 0; i < header.length; i++) {
-			frame[i] = header[i];
-		}
-		for (; i < frame.length; i++) {
-			frame[i] = body[i - header.length];
-		}
-		
-		return frame;
+	private FrameView getFrame(int timeout) throws IOException {
+		return receiveFrame(receiver, view, timeout);
 	}
 	
 	/**
-	 * Fetches a frame from the remote bridge.
-	 * <br/>This is a very lazy implementation. I didn't want to go back and screw with the Node receive methods, so I did this 
-	 * instead.
-	 * @return The frame, or null timeout or error occur
+	 * Fetches a frame from the remote bridge, without waiting.
+	 * @return A view of the frame, or null timeout or error occur
 	 */
-	private byte[] getBridgeFrame() {
-		Socket inputHolder = this.input;
-		this.input = this.bridgeIn;
-		byte[] frame;
+	private FrameView getBridgeFrame() {
 		try {
-			frame = getFrame();
+			return receiveFrame(bridgeIn, bridgeView, 0);
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.out.println("Error when fetching a frame from the remote bridge!");
-			frame = null;
-		}
-		finally {
-			this.input = inputHolder; //super important we swap back in the reference to our actual input
+			return null;
 		}
-		return frame;
 	}
 	
 	private void communicate(STDMessage msg) {
@@ -239,49 +347,234 @@ public class Bridge extends Node {
 		frame[3] = 0; //set source to 0
 		
 		try {
-			sendBridge(frame);
+			sendBridge(frame, 0, 1 + 6);
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			pool.release(frame);
 		}
 		
 	}
 	
-	private boolean processRingFrame(byte[] frame) {
-//		if (Frame.Header.isToken(Frame.getHeader(frame))) {
-//
-//			try {
-//				send(frame); //pass token
-//			} catch (IOException e) {
-//				System.out.println("Error passing token in bridge!");
-//			} 
-//			return false;
-//		}
-		
-		if (Frame.Header.isFinish(Frame.getHeader(frame))) {
-			//communicate to remote that this ring is finished
-			communicate(STDMessage.FINISH);
+	private boolean processRingFrame(FrameView frame) {
+		if (frame.isFinish()) {
+			if (connected) {
+				//communicate to remote that this ring is finished
+				communicate(STDMessage.FINISH);
+			} else {
+				//there's no other ring that could still need us, so we're done for good
+				passKill();
+			}
 			//implicit drain of frame
 			return false;
 		}
 		
-		if (Frame.Header.isKill(Frame.getHeader(frame))) {
+		if (frame.isKill()) {
 			//the kill finally came around, so kill self and be done
 			return true;
 		}
 		
-		//forward to remote
+		if (frame.isToken()) {
+			//Frames from the other side are still going around, so nobody should decide the ring's not being used
+			if (!injected.isEmpty()) {
+				frame.setFrameStatus((byte) (frame.getFrameStatus() | 128));
+			}
+			forward(frame);
+			return false;
+		}
+		
+		if (frame.isPurge()) {
+			//everything in front of it is about to be thrown out, including anything we put on the ring. Ours go
+			//out again right behind it
+			forward(frame);
+			reinject();
+			return false;
+		}
+		
+		if (frame.isMonitorPresent() || frame.isClaim()) {
+			//the monitors looking after our ring. That means nothing anywhere else, so it just keeps going around
+			forward(frame);
+			return false;
+		}
+		
+		if (!connected) {
+			offline(frame);
+			return false;
+		}
+		
+		byte destination = frame.getDestination();
+		if (table.lookup(frame.getSource()) == REMOTE) {
+			//one we put on our ring from the other side, all the way back around
+			returned(frame);
+			return false;
+		}
+		
+		table.learn(frame.getSource(), LOCAL);
+		int side = table.lookup(destination);
+		if (frame.getFrameStatus() != 0) {
+			if (side == REMOTE) {
+				//we already answered for this one. Its source must have forgotten to drain it
+				return false;
+			}
+			//it found its destination before it got to us
+			table.learnIfUnknown(destination, LOCAL);
+			learned.set(table.size());
+			forward(frame);
+			keptLocal.increment();
+			return false;
+		}
+		
+		if (side == LOCAL) {
+			forward(frame);
+			keptLocal.increment();
+		} else if (side == REMOTE && !frame.isBatch()) {
+			toRemote(frame);
+			//we'll get it there from here
+			frame.setFrameStatus((byte) 2);
+			forward(frame);
+		} else {
+			//Could be anywhere. Send it over asking to hear back, and let it go on around our ring in case it's here.
+			//Batches always go this way, since we can't answer for each message in them
+			frame.setFrameStatus(REPORT);
+			toRemote(frame);
+			frame.setFrameStatus((byte) 0);
+			forward(frame);
+		}
+		learned.set(table.size());
+		return false;
+	}
+	
+	/**
+	 * Handles a frame from our ring when there's no remote bridge.
+	 * @param frame
+	 */
+	private void offline(FrameView frame) {
+		byte destination = frame.getDestination();
+		if (ringKnown && frame.getFrameStatus() == 0 && table.lookup(destination) != LOCAL) {
+			//nobody anywhere is going to take it, so don't let its source keep trying
+			if (table.learn(destination, REMOTE)) {
+				System.out.println("Nobody on the ring has address " + (destination & 0xFF)
+						+ ". Frames for it are being thrown away");
+				learned.set(table.size());
+			}
+			if (frame.isBatch()) {
+				markBatch(frame, -1);
+			}
+			frame.setFrameStatus((byte) 2);
+			undeliverable.increment();
+		}
+		forward(frame);
+	}
+	
+	/**
+	 * Handles a frame from the other side that's been all the way around our ring.
+	 * @param frame
+	 */
+	private void returned(FrameView frame) {
+		byte[] copy = injected.poll();
+		if (copy != null) {
+			pool.release(copy);
+		}
+		
+		int destination = frame.getDestination() & 0xFF;
+		if (frame.getFrameStatus() == 0) {
+			//nobody here took it, so wherever it's going, it isn't here
+			table.learnIfUnknown(frame.getDestination(), REMOTE);
+			if (reports[destination] > 0) {
+				reports[destination]--;
+			}
+		} else {
+			table.learnIfUnknown(frame.getDestination(), LOCAL);
+			if (reports[destination] > 0) {
+				//the source asked how it went
+				reports[destination]--;
+				toRemote(frame);
+			} else if (frame.getFrameStatus() == 3 && !frame.isBatch()) {
+				//turned down. The source thinks it got through, so it's up to us to try again
+				frame.setFrameStatus((byte) 0);
+				inject(frame, true);
+			}
+		}
+		
+		if (killWaiting && injected.isEmpty()) {
+			System.out.println("Every frame from the remote is back! Forwarding the kill");
+			killWaiting = false;
+			passKill();
+		}
+	}
+
+	
+	/**
+	 * Passes a frame on around our ring.
+	 * @param frame
+	 */
+	private void forward(FrameView frame) {
+		try {
+			send(frame);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Error when passing frame along in bridge!");
+		}
+	}
+	
+	/**
+	 * Sends a copy of a frame from our ring over to the other side.
+	 * @param frame
+	 */
+	private void toRemote(FrameView frame) {
 		try {
-			sendBridge(frame);
+			long start = clock.nanos();
+			sendBridge(frame.buffer().array(), frame.buffer().arrayOffset() + frame.offset(), frame.length());
+			toRemoteTime.record(clock.nanos() - start);
+			toRemote.increment();
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.out.println("Error when trying to forward frame to remote bridge!");
 		}
-		
-		
-		return false;
 	}
 	
-	private boolean processBridgeFrame(byte[] frame) {
+	/**
+	 * Puts a frame from the other side on our ring. Whatever the monitor over there marked on it doesn't mean
+	 * anything to ours, so it's cleared first.
+	 * @param frame
+	 * @param keep Whether it comes back around to us, so we should hang on to a copy until it does
+	 */
+	private void inject(FrameView frame, boolean keep) {
+		frame.setMonitor(false);
+		frame.setReservation(0);
+		if (keep) {
+			byte[] copy = pool.acquire();
+			System.arraycopy(frame.buffer().array(), frame.buffer().arrayOffset() + frame.offset(), copy, 0,
+					frame.length());
+			injected.add(copy);
+		}
+		try {
+			long start = clock.nanos();
+			send(frame);
+			fromRemoteTime.record(clock.nanos() - start);
+			fromRemote.increment();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Encountered an error in the bridge when trying to forward a frame from the remote into the local");
+		}
+	}
+	
+	/**
+	 * Puts every frame from the other side that hasn't come back yet on our ring again, in the same order.
+	 */
+	private void reinject() {
+		for (byte[] copy : injected) {
+			try {
+				send(copy, 0, Frame.headerLength + (copy[4] & 0xFF) + 1);
+				reinjected.increment();
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println("Error when putting a purged frame back on the ring in bridge!");
+			}
+		}
+	}
+	
+	private boolean processBridgeFrame(FrameView frame) {
 		
 		//It's important to understand we can get two types of messages:
 		//Message forwarded to this ring from the bridge
@@ -290,50 +583,75 @@ public class Bridge extends Node {
 		/*
 		 * We will get a KILL frame from the bridge if any. If we get somethign else, we assume it was wrong.
 		 */
-		byte[] data = Frame.getData(frame);
-		if (data == null) {
-			return false;
-		}
-		
-		if (Frame.Header.getSource(Frame.getHeader(frame)) == (byte) 0 && data.length == 1) {		
+		if (frame.getSource() == (byte) 0 && frame.getSize() == 1) {		
 			//source was 0, size is 1, this is a communication frame
 			System.out.println("Received a inter-bridge communication frame!");
-			STDMessage msg = STDMessage.fromId(data[0]);
+			STDMessage msg = STDMessage.fromId(frame.buffer().get(frame.dataOffset()));
 			
 			
 			switch (msg) {
 			case KILL:
+				if (!injected.isEmpty()) {
+					System.out.println("Got a kill frame from remote! Waiting on " + injected.size()
+							+ " frames from the remote to come back first...");
+					killWaiting = true;
+					return false;
+				}
 				System.out.println("Got a kill frame from remote! Forwarding!");
 				passKill();
 				return false;
 			default:
 				return false;
 			}
-		} else {
-			try {
-				send(frame);
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.out.println("Encountered an error in the bridge when trying to forward a frame from the remote into the local");
+		}
+		
+		byte destination = frame.getDestination();
+		if (frame.getFrameStatus() == 2 || frame.getFrameStatus() == 3) {
+			//how one of ours that we asked about did over there. That's where its destination is
+			if (table.lookup(frame.getSource()) != LOCAL) {
+				droppedRemote.increment();
+				return false;
 			}
+			table.learn(destination, REMOTE);
+			learned.set(table.size());
+			inject(frame, false); //its source drains it, so it won't be back
+			return false;
+		}
+		
+		table.learn(frame.getSource(), REMOTE);
+		learned.set(table.size());
+		if (table.lookup(destination) == REMOTE) {
+			//not for anybody here
+			droppedRemote.increment();
 			return false;
 		}
+		
+		if (frame.getFrameStatus() == REPORT) {
+			reports[destination & 0xFF]++;
+			frame.setFrameStatus((byte) 0);
+		}
+		inject(frame, true);
+		return false;
 	}
 	
 	private void sendBridge(byte[] frame) throws IOException {
-		if (!connected) {
-			System.out.println("Silently ignoring send-request to unconnected bridge...");
+		if (frame == null) {
+			System.out.println("Tried to send a null frame in bridge!");
 			return;
 		}
 		
-		if (frame == null) {
-			System.out.println("Tried to send a null frame in bridge!");
+		sendBridge(frame, 0, frame.length);
+	}
+	
+	private void sendBridge(byte[] frame, int offset, int length) throws IOException {
+		if (!connected) {
+			System.out.println("Silently ignoring send-request to unconnected bridge...");
 			return;
 		}
 		
 		OutputStream output = bridgeOut.getOutputStream();
 		
-		output.write(frame);
+		output.write(frame, offset, length);
 		output.flush();
 		
 	}
@@ -0,0 +1,189 @@
+package com.smanzana.Project3.Node;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Runs a whole ring of nodes on a small number of threads instead of one thread per node.<br />
+ * Each loop thread owns one selector with the input sockets of its share of the nodes registered to it. When a
+ * socket has bytes, the loop calls {@link Node#step(int)} on that node (without waiting) until the node runs out
+ * of things to do. Nodes never block the loop, so a single thread can carry a full 254 node ring.
+ * <p>Nodes whose links aren't selectable (like in-memory links) wake the selector up when they get data instead,
+ * and get checked every time the loop comes around.</p>
+ * <p>Every {@link #TICK_TIME} milliseconds of quiet, every node gets stepped anyways. This is what lets the
+ * monitor notice a lost token, since there won't be any socket activity to wake it up.</p>
+ * @author Skyler
+ */
+public class EventLoop {
+
+	/**
+	 * How long a loop sleeps on its selector before it steps all of its nodes regardless, in milliseconds
+	 */
+	public static final int TICK_TIME = 10;
+
+	private List<List<Node>> groups;
+
+	/**
+	 * Splits the passed nodes up over <i>threads</i> loops. Nodes are dealt out round-robin.
+	 * @param nodes Every node that should be driven, including the monitor and bridge
+	 * @param threads How many loop threads to use. Anything less than 1 is treated as 1
+	 */
+	public EventLoop(List<Node> nodes, int threads) {
+		if (threads < 1) {
+			threads = 1;
+		}
+		if (threads > nodes.size()) {
+			threads = nodes.size();
+		}
+
+		groups = new ArrayList<List<Node>>(threads);
+		for (int i = 0; i < threads; i++) {
+			groups.add(new ArrayList<Node>());
+		}
+
+		int i = 0;
+		for (Node n : nodes) {
+			groups.get(i % threads).add(n);
+			i++;
+		}
+	}
+
+	/**
+	 * Connects every node with a {@link Bootstrap} and then starts the loop threads once they're all set up.
+	 * If any node couldn't be hooked up, nothing is started and every node is killed instead.
+	 * @return Whether the loops were started
+	 */
+	public boolean start() {
+		List<Node> all = new ArrayList<Node>();
+		for (List<Node> group : groups) {
+			all.addAll(group);
+		}
+		Bootstrap bootstrap = new Bootstrap(all);
+		if (!bootstrap.run()) {
+			bootstrap.abort();
+			return false;
+		}
+
+		System.out.println("All nodes connected. Starting " + groups.size() + " event loop(s)...");
+
+		int i = 0;
+		for (final List<Node> group : groups) {
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					loop(group);
+				}
+			}, "EventLoop-" + i);
+			t.start();
+			i++;
+		}
+		return true;
+	}
+
+	private void loop(List<Node> group) {
+		Selector selector;
+		List<Node> polled = new ArrayList<Node>();
+		try {
+			selector = Selector.open();
+			for (Node n : group) {
+				if (!n.register(selector)) {
+					polled.add(n);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Unable to set up event loop selector!");
+			return;
+		}
+
+		List<Node> live = new LinkedList<Node>(group);
+		List<Node> ready = new ArrayList<Node>();
+
+		//everyone gets one pass up front, so whoever already has something buffered gets to it
+		pumpAll(live, live);
+
+		while (!live.isEmpty()) {
+			int count;
+			try {
+				count = selector.select(TICK_TIME);
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println("Error in event loop when waiting on selector!");
+				return;
+			}
+
+			if (count == 0) {
+				//nothing happened for a whole tick, or someone on a link we can't select on woke us up.
+				//Give everybody a chance to check their timers and links
+				pumpAll(live, live);
+				continue;
+			}
+
+			ready.clear();
+			for (SelectionKey key : selector.selectedKeys()) {
+				Node n = (Node) key.attachment();
+				if (!ready.contains(n)) {
+					ready.add(n);
+				}
+			}
+			selector.selectedKeys().clear();
+
+			for (Node n : ready) {
+				if (pump(n) == Node.STEP_DEAD) {
+					live.remove(n);
+				}
+			}
+			
+			if (!polled.isEmpty()) {
+				//their links don't show up in the selector, so just check them every time around
+				pumpAll(polled, live);
+			}
+		}
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Pumps every node in <i>nodes</i> that's still in <i>live</i>. Nodes that die are taken out of both.
+	 * @param nodes
+	 * @param live
+	 */
+	private void pumpAll(List<Node> nodes, List<Node> live) {
+		Iterator<Node> it = nodes.iterator();
+		while (it.hasNext()) {
+			Node n = it.next();
+			if (nodes != live && !live.contains(n)) {
+				it.remove();
+				continue;
+			}
+			if (pump(n) == Node.STEP_DEAD) {
+				it.remove();
+				if (nodes != live) {
+					live.remove(n);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Steps the node until it doesn't have anything left to do right now.
+	 * @param n
+	 * @return The last result from the node's step
+	 */
+	private int pump(Node n) {
+		int result;
+		do {
+			result = n.step(0);
+		} while (result == Node.STEP_BUSY);
+		return result;
+	}
+
+}
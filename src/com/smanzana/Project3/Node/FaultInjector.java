@@ -0,0 +1,198 @@
+package com.smanzana.Project3.Node;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+
+import com.smanzana.Project3.Project3;
+
+/**
+ * Decides when a node does one of the things it does wrong on purpose, for testing: dropping the token, rejecting
+ * a frame sent to it, and 'forgetting' to drain one of its own frames.<br />
+ * Every node gets its own injector with its own random number generator, seeded from {@link Project3#faultSeed}
+ * and the node's address. So two runs with the same seed make the same choices in the same order, and no node's
+ * choices depend on how busy the others were.
+ * <p>Each kind of fault has a rate (0 turns it off), and faults can also be scripted to happen at exact points.
+ * Every time a node could do a fault counts as one chance, numbered from 0 for each kind of fault. A script
+ * lists which chances (on which node) always end up as a fault, on top of whatever the rates pick. For example,
+ * chance 3 of {@link #REJECT} is the fourth frame sent to the node. A script file has one fault per line:<br />
+ * <code>&lt;node address&gt; &lt;drop|reject|drain&gt; &lt;chance number&gt;</code><br />
+ * Lines starting with # are skipped.</p>
+ * @author Skyler
+ */
+public class FaultInjector {
+
+	/**
+	 * The kinds of faults
+	 */
+	public static final int DROP_TOKEN = 0, REJECT = 1, FORGET_DRAIN = 2;
+
+	public static final int FAULTS = 3;
+
+	/**
+	 * What each kind of fault is called in options and script files
+	 */
+	public static final String[] NAMES = {"drop", "reject", "drain"};
+
+	private Random rand;
+	private double[] rates;
+
+	/**
+	 * For each kind of fault, the chances that were scripted to be faults, sorted
+	 */
+	private long[][] script;
+
+	/**
+	 * For each kind of fault, how many chances there have been and how many of them were faults
+	 */
+	private long[] chances, injected;
+
+	/**
+	 * @param seed
+	 * @param rates How likely each kind of fault is, from 0 to 1, indexed like {@link #DROP_TOKEN} and friends
+	 * @param script The scripted chances for each kind of fault. Any of them can be null
+	 */
+	public FaultInjector(long seed, double[] rates, long[][] script) {
+		this.rand = new Random(seed);
+		this.rates = Arrays.copyOf(rates, FAULTS);
+		this.script = script == null ? new long[FAULTS][] : script;
+		this.chances = new long[FAULTS];
+		this.injected = new long[FAULTS];
+	}
+
+	/**
+	 * Makes the injector for a node, using the seed, rates and script file set in {@link Project3}.
+	 * @param address
+	 * @return
+	 */
+	public static FaultInjector forNode(byte address) {
+		long[][] script = null;
+		if (Project3.faultScript != null) {
+			script = readScript(Project3.faultScript, address);
+		}
+		return new FaultInjector(Project3.faultSeed * 31 + address, Project3.faultRates, script);
+	}
+
+	/**
+	 * Takes a chance at a fault.
+	 * @param fault {@link #DROP_TOKEN}, {@link #REJECT} or {@link #FORGET_DRAIN}
+	 * @return true if the fault should happen
+	 */
+	public boolean inject(int fault) {
+		long chance = chances[fault]++;
+		boolean hit = script[fault] != null && Arrays.binarySearch(script[fault], chance) >= 0;
+		if (rates[fault] > 0 && rand.nextDouble() < rates[fault]) {
+			hit = true;
+		}
+		if (hit) {
+			injected[fault]++;
+		}
+		return hit;
+	}
+
+	/**
+	 * @param fault
+	 * @return How many times the fault has happened so far
+	 */
+	public long getInjected(int fault) {
+		return injected[fault];
+	}
+
+	/**
+	 * @param fault
+	 * @return How many chances at the fault there have been so far
+	 */
+	public long getChances(int fault) {
+		return chances[fault];
+	}
+
+	/**
+	 * @param name drop, reject or drain
+	 * @return The kind of fault, or -1 if it isn't one
+	 */
+	public static int fault(String name) {
+		for (int i = 0; i < FAULTS; i++) {
+			if (NAMES[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Pulls the faults scripted for one node out of a script file. Bad lines are skipped.
+	 * @param file
+	 * @param address
+	 * @return The chances for each kind of fault (null where there aren't any), or null if the file can't be read
+	 */
+	public static long[][] readScript(File file, byte address) {
+		long[][] script = new long[FAULTS][];
+		int[] counts = new int[FAULTS];
+		for (int i = 0; i < FAULTS; i++) {
+			script[i] = new long[8];
+		}
+
+		Scanner input;
+		try {
+			input = new Scanner(file);
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			System.out.println("Unable to open fault script: " + file.getPath());
+			return null;
+		}
+
+		while (input.hasNextLine()) {
+			String line = input.nextLine().trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+
+			String[] parts = line.split("\\s+");
+			int fault = parts.length == 3 ? fault(parts[1]) : -1;
+			long chance;
+			try {
+				if (fault == -1 || (byte) Integer.parseInt(parts[0]) != address) {
+					if (fault == -1) {
+						System.out.println("Invalid line in fault script: " + line + "\nSkipping it...");
+					}
+					continue;
+				}
+				chance = Long.parseLong(parts[2]);
+			} catch (NumberFormatException e) {
+				System.out.println("Invalid line in fault script: " + line + "\nSkipping it...");
+				continue;
+			}
+
+			if (counts[fault] == script[fault].length) {
+				script[fault] = Arrays.copyOf(script[fault], counts[fault] * 2);
+			}
+			script[fault][counts[fault]++] = chance;
+		}
+		input.close();
+
+		for (int i = 0; i < FAULTS; i++) {
+			if (counts[i] == 0) {
+				script[i] = null;
+			} else {
+				script[i] = Arrays.copyOf(script[i], counts[i]);
+				Arrays.sort(script[i]);
+			}
+		}
+		return script;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < FAULTS; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(NAMES[i]).append(' ').append(injected[i]).append('/').append(chances[i]);
+		}
+		return builder.toString();
+	}
+
+}
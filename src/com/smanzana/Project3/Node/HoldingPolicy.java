@@ -0,0 +1,178 @@
+package com.smanzana.Project3.Node;
+
+/**
+ * Decides how much a node gets to send each time it holds the token.<br />
+ * Every node gets its own policy object, since most of them keep track of something between visits. The node
+ * tells it when it gets the token (and how much it has waiting), asks before every frame whether it can send it,
+ * and tells it when it lets go.
+ * <p>There are three to pick from (see {@link #create(String, int)}):
+ * <ul><li><b>fixed</b> - the usual token holding time, no matter what</li>
+ * <li><b>proportional</b> - enough frames to get through the queue in about {@link Proportional#VISITS} visits,
+ * so a node with a lot waiting gets a bigger share than one with a little. Never less than the holding time</li>
+ * <li><b>drr</b> - deficit round robin. Each visit adds a budget of bytes, and frames are sent until the next one
+ * doesn't fit. What's left over carries to the next visit, so big and small frames get a fair share in bytes</li></ul>
+ * None of them ever go past {@link #maxFrames()} in one visit.</p>
+ * @author Skyler
+ */
+public abstract class HoldingPolicy {
+
+	/**
+	 * How much bigger than the token holding time a visit can get with the policies that grow it
+	 */
+	public static final int MAX_SCALE = 8;
+
+	protected int tokenHoldingTime;
+
+	protected HoldingPolicy(int tokenHoldingTime) {
+		this.tokenHoldingTime = Math.max(1, tokenHoldingTime);
+	}
+
+	/**
+	 * Makes a new policy by name.
+	 * @param name fixed, proportional or drr
+	 * @param tokenHoldingTime The configured holding time, which each policy uses as its base
+	 * @return
+	 * @throws IllegalArgumentException if the name isn't one of those
+	 */
+	public static HoldingPolicy create(String name, int tokenHoldingTime) {
+		switch (name) {
+		case "fixed":
+			return new Fixed(tokenHoldingTime);
+		case "proportional":
+			return new Proportional(tokenHoldingTime);
+		case "drr":
+			return new DeficitRoundRobin(tokenHoldingTime);
+		default:
+			throw new IllegalArgumentException("Unknown token holding policy: " + name);
+		}
+	}
+
+	/**
+	 * The node just got the token and is about to start sending.
+	 * @param queued About how many frames the node has left to send, including what's still in its input file
+	 */
+	public abstract void visitStarted(long queued);
+
+	/**
+	 * Asks whether the next frame can go out on this visit. If it can, it's counted against the visit.
+	 * @param sent How many frames have been sent this visit already
+	 * @param length How many bytes the next frame is
+	 * @return
+	 */
+	public abstract boolean allow(int sent, int length);
+
+	/**
+	 * The node let go of the token.
+	 * @param queued About how many frames the node still has to send
+	 */
+	public void visitEnded(long queued) {
+		;
+	}
+
+	/**
+	 * @return The most frames this policy will ever let through in one visit
+	 */
+	public int maxFrames() {
+		return tokenHoldingTime * MAX_SCALE;
+	}
+
+	/**
+	 * The usual: the same number of frames every time.
+	 */
+	public static class Fixed extends HoldingPolicy {
+
+		public Fixed(int tokenHoldingTime) {
+			super(tokenHoldingTime);
+		}
+
+		@Override
+		public void visitStarted(long queued) {
+			;
+		}
+
+		@Override
+		public boolean allow(int sent, int length) {
+			return sent < tokenHoldingTime;
+		}
+
+		@Override
+		public int maxFrames() {
+			return tokenHoldingTime;
+		}
+
+	}
+
+	/**
+	 * Scales each visit with how much the node has waiting.
+	 */
+	public static class Proportional extends HoldingPolicy {
+
+		/**
+		 * About how many visits a node's whole queue should take to get through
+		 */
+		public static final int VISITS = 16;
+
+		private int limit;
+
+		public Proportional(int tokenHoldingTime) {
+			super(tokenHoldingTime);
+			limit = tokenHoldingTime;
+		}
+
+		@Override
+		public void visitStarted(long queued) {
+			long wanted = (queued + VISITS - 1) / VISITS;
+			limit = (int) Math.max(tokenHoldingTime, Math.min(maxFrames(), wanted));
+		}
+
+		@Override
+		public boolean allow(int sent, int length) {
+			return sent < limit;
+		}
+
+	}
+
+	/**
+	 * Deficit round robin, counted in bytes.
+	 */
+	public static class DeficitRoundRobin extends HoldingPolicy {
+
+		/**
+		 * How many bytes each visit adds per frame of token holding time. This is a middle-sized frame
+		 */
+		public static final int BYTES_PER_FRAME = 128;
+
+		private long quantum, deficit;
+
+		public DeficitRoundRobin(int tokenHoldingTime) {
+			super(tokenHoldingTime);
+			quantum = (long) this.tokenHoldingTime * BYTES_PER_FRAME;
+			deficit = 0;
+		}
+
+		@Override
+		public void visitStarted(long queued) {
+			deficit += quantum;
+		}
+
+		@Override
+		public boolean allow(int sent, int length) {
+			if (sent >= maxFrames() || length > deficit) {
+				return false;
+			}
+			deficit -= length;
+			return true;
+		}
+
+		@Override
+		public void visitEnded(long queued) {
+			if (queued == 0) {
+				deficit = 0; //nothing waiting means nothing to save up for
+			} else if (deficit > quantum * MAX_SCALE) {
+				deficit = quantum * MAX_SCALE;
+			}
+		}
+
+	}
+
+}
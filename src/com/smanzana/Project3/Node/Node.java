@@ -1,22 +1,29 @@
 package com.smanzana.Project3.Node;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketAddress;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
 
 import com.smanzana.Project3.Project3;
+import com.smanzana.Project3.Frame.EncodedFrame;
 import com.smanzana.Project3.Frame.Frame;
+import com.smanzana.Project3.Frame.FramePool;
+import com.smanzana.Project3.Frame.FrameView;
 import com.smanzana.Project3.Frame.Token;
+import com.smanzana.Project3.Transport.Listener;
+import com.smanzana.Project3.Transport.Outbound;
+import com.smanzana.Project3.Transport.Transport;
+import com.smanzana.Project3.Utils.Clock;
+import com.smanzana.Project3.Utils.MappedInput;
+import com.smanzana.Project3.Utils.OutputLog;
+import com.smanzana.Project3.Utils.OutputSink;
+import com.smanzana.Project3.Utils.ReceiveBuffer;
 
 /**
  * A simple node that works both as a transmitter as well as a piece of a pipe.<br />
@@ -28,16 +35,180 @@ import com.smanzana.Project3.Frame.Token;
  */
 public class Node extends Thread {
 	
-	protected Socket input, output;
+	protected Transport transport;
+	
+	/**
+	 * What this node's timeouts are measured with. Only a {@link Simulation} uses anything but the real time
+	 */
+	protected Clock clock;
+	
+	/**
+	 * What we count and time about ourselves, and when the token last came by (Long.MIN_VALUE if it hasn't yet)
+	 */
+	protected NodeMetrics metrics;
+	private long lastTokenTime;
+	protected Outbound output;
+	protected ReceiveBuffer receiver;
+	
+	/**
+	 * Our port, from when we claim it until the upstream node has connected to it
+	 */
+	private Listener listener;
 	protected int port;
 	private boolean hasToken;
-	private List<String> messages, sentMessages;
+	/**
+	 * Frames we need to send, and frames we've sent but haven't heard back about. Both are built once, when the
+	 * input is loaded, so holding the token never touches a String
+	 */
+	private SendQueue messages;
+	private ArrayDeque<EncodedFrame> sentMessages;
+	
+	/**
+	 * Sliding windows, indexed by node address: what we've numbered and not heard back about for each destination,
+	 * and what we've already taken from each source. Made the first time they're needed
+	 */
+	private SendWindow[] sendWindows;
+	private ReceiveWindow[] receiveWindows;
+	private int windowSize;
+	
+	/**
+	 * Where the rest of our messages come from, if they're being streamed in from a file. Null once it's all been
+	 * read
+	 */
+	private MappedInput input;
+	
+	/**
+	 * How many frames we try to keep parsed and waiting in <i>messages</i> when streaming from a file.
+	 * We read more once it drops below half of this
+	 */
+	private int readAhead;
+	
+	/**
+	 * Whether we pass the token on as soon as our last frame is out (early token release), or hold on to it until
+	 * those frames have come back around to us, like a plain 802.5 station
+	 */
+	private boolean earlyRelease;
+	
+	/**
+	 * How many frames we sent with the token we're holding that haven't come back yet, and whether we're
+	 * holding the token until they do
+	 */
+	private int pendingReturns;
+	private boolean awaitingReturn;
+	private long returnDeadline;
+	
+	/**
+	 * Every time we raise the token's priority, we remember what we raised it to and what it was before, so that
+	 * we can bring it back down once nobody needs it that high anymore (we're a 'stacking station' in 802.5 talk).
+	 * Each raise goes higher than the last, so there can't be more than 7 of these
+	 */
+	private int[] raisedTo, raisedFrom;
+	private int raises;
+	
+	/**
+	 * Decides how many frames we get to send each time we have the token
+	 */
+	private HoldingPolicy holding;
+	
+	/**
+	 * Whether we stopped sending because the policy said we'd had our share (as opposed to running out of
+	 * frames). Only then is the token up for being dropped on purpose
+	 */
+	private boolean shareUsed;
+	
+	/**
+	 * Whether we pack small frames going to the same node into one {@link Frame.Header#isBatch(byte[]) batch}
+	 * frame, so they take one trip around the ring instead of one each
+	 */
+	private boolean batching;
+	
+	/**
+	 * Number given to the next message we have to {@link #fragment(int, byte, byte[], int, int) fragment}, and
+	 * where the fragments sent to us get put back together
+	 */
+	private int nextMessage;
+	private Reassembler reassembler;
+	
+	/**
+	 * Decides when we drop the token, reject a frame or forget to drain one, for testing
+	 */
+	private FaultInjector faults;
 	protected byte address;
 	protected int tokenHoldingTime, framesTransferred;
 	private File outputFile;
-	private PrintWriter writer;
+	
+	/**
+	 * Where frames addressed to us get written. The actual writing happens on a background thread
+	 */
+	private OutputSink writer;
+	
+	/**
+	 * Only used when writing a binary log: the index that goes with it, and how many bytes we've put in the log
+	 */
+	private OutputSink index;
+	private long logPosition;
 	protected Token token;
 	
+	/**
+	 * The active monitor's job, if it's ours. Otherwise we're a standby monitor: we keep track of when we last
+	 * heard from the active monitor (Long.MIN_VALUE until we start listening), and when we sent a claim to take
+	 * over for it (Long.MIN_VALUE if we haven't), in milliseconds
+	 */
+	protected ActiveMonitor duties;
+	private long lastMonitorPresent, claimSent;
+	
+	/**
+	 * Reused to look at every frame that comes in
+	 */
+	protected FrameView view;
+	
+	/**
+	 * Where frames we build ourselves come from
+	 */
+	protected FramePool pool;
+	
+	/**
+	 * Results of {@link #step(int)}
+	 */
+	public static final int STEP_IDLE = 0, STEP_BUSY = 1, STEP_DEAD = 2;
+	
+	/**
+	 * How long a node running on its own thread waits for a frame before checking back in, in milliseconds
+	 */
+	public static final int POLL_TIME = 50;
+	
+	/**
+	 * Longest we'll hold the token waiting for our frames to come back when not using early token release, in
+	 * milliseconds. After that they're assumed lost
+	 */
+	public static final int RETURN_TIMEOUT = 1000;
+	
+	/**
+	 * How long a standby monitor goes without hearing from the active monitor before it tries to take over, in
+	 * milliseconds. Several {@link ActiveMonitor#PRESENT_INTERVAL present frames} in a row have to go missing first
+	 */
+	public static final int STANDBY_TIMEOUT = 500;
+	
+	/**
+	 * Most messages packed into one batch frame, and how far down the queue we look for them
+	 */
+	public static final int MAX_BATCH = 32, BATCH_WINDOW = 64;
+	
+	/**
+	 * Most fragments one message can be split into, since the count has to fit in a byte
+	 */
+	public static final int MAX_FRAGMENTS = 255;
+	
+	/**
+	 * How many times we try to connect to the next node before giving up, and how long we wait after the first
+	 * failed try, in milliseconds. The wait doubles after every try, up to {@link #MAX_CONNECT_BACKOFF}
+	 */
+	public static final int CONNECT_ATTEMPTS = 12, CONNECT_BACKOFF = 5, MAX_CONNECT_BACKOFF = 1000;
+	
+	/**
+	 * Longest we wait for the node before us to connect, in milliseconds
+	 */
+	public static final int ACCEPT_TIMEOUT = 30000;
 	
 	/**
 	 * Creates a node with the passed socket. The node has no message it needs to send and does not have the token.<br />
@@ -49,75 +220,143 @@ public class Node extends Thread {
 		this.tokenHoldingTime = tokenHoldingTime;
 		this.address = address;
 		this.token = null;
+		this.view = new FrameView();
 		this.port = port;
 		hasToken = false;
-		messages = new LinkedList<String>(); //messages we need to send
-		sentMessages = new LinkedList<String>(); //messages we have sent but have yet to receive ack
-		if (this.output == null) {
-			this.output = new Socket();
-		}
+		messages = new SendQueue(); //messages we need to send
+		sentMessages = new ArrayDeque<EncodedFrame>(); //messages we have sent but have yet to receive ack
+		holding = HoldingPolicy.create(Project3.holdingPolicy, tokenHoldingTime);
+		sendWindows = new SendWindow[256];
+		receiveWindows = new ReceiveWindow[256];
+		windowSize = Project3.windowSize;
+		input = null;
+		readAhead = Math.max(64, holding.maxFrames() * 2);
+		earlyRelease = Project3.earlyTokenRelease;
+		batching = Project3.batching;
+		nextMessage = 0;
+		reassembler = new Reassembler();
+		faults = FaultInjector.forNode(address);
+		pendingReturns = 0;
+		awaitingReturn = false;
+		raisedTo = new int[SendQueue.PRIORITIES];
+		raisedFrom = new int[SendQueue.PRIORITIES];
+		raises = 0;
+		this.transport = Project3.transport;
+		this.clock = Project3.clock;
+		metrics = new NodeMetrics(Project3.metrics, address);
+		lastTokenTime = Long.MIN_VALUE;
+		listener = null;
+		duties = null;
+		lastMonitorPresent = Long.MIN_VALUE;
+		claimSent = Long.MIN_VALUE;
+		this.pool = Project3.framePool;
 		//set out output
-		outputFile = new File("output-file-" + address);
-		if (!outputFile.exists()) {
-			try {
-				outputFile.createNewFile();
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.out.println("Error when trying to create output file for node [" + address + "]!!!\n\n\n");
-			}
-		}
-		
-
+		outputFile = new File("output-file-" + address + (Project3.binaryOutput ? ".bin" : ""));
+		logPosition = 0;
 		try {
-			writer = new PrintWriter(outputFile);
-		} catch (FileNotFoundException e) {
+			writer = new OutputSink(outputFile, Project3.outputWriter);
+			if (Project3.binaryOutput) {
+				index = new OutputSink(new File(outputFile.getPath() + OutputLog.INDEX_SUFFIX), Project3.outputWriter);
+			}
+		} catch (IOException e) {
 			e.printStackTrace();
+			System.out.println("Error when trying to create output file for node [" + address + "]!!!\n\n\n");
 		}
 		
 	}
 	
 	/**
-	 * Connects the node to the provided socket
+	 * Sets what this node uses to hook up to its neighbors. Must be called before the node is set up.
+	 * @param transport
+	 */
+	public void setTransport(Transport transport) {
+		this.transport = transport;
+	}
+	
+	/**
+	 * Connects the node to the downstream node bound to the provided address.<br />
+	 * If it isn't bound yet, we back off and try again, up to {@link #CONNECT_ATTEMPTS} times.
 	 * @param addr
 	 */
-	public void connect(SocketAddress addr) {
-		if (output == null || output.isClosed()) {
-			System.out.println("Unable to connect the socket because it is either closed or doesn't exist.");
-			return;
-		}
-		if (output.isConnected()) {
+	public void connect(InetSocketAddress addr) {
+		if (output != null && !output.isClosed()) {
 			System.out.println("Socket is already connected! Attempting to connect anyways..");
 		}
 		
+		long backoff = CONNECT_BACKOFF;
+		for (int attempt = 1; true; attempt++) {
+			try {
+				output = transport.connect(addr);
+				return;
+			} catch (IOException e) {
+				if (attempt >= CONNECT_ATTEMPTS) {
+					e.printStackTrace();
+					System.out.println("Error when trying to connect in node [" + address + "] !\n\n");
+					return;
+				}
+			}
+			
+			metrics.connectRetries.increment();
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				return;
+			}
+			backoff = Math.min(backoff * 2, MAX_CONNECT_BACKOFF);
+		}
+	}
+	
+	/**
+	 * Claims our port so the upstream node can connect to it, without waiting for it to. Does nothing if we've
+	 * already got it.
+	 * @return false if the port couldn't be had
+	 */
+	public boolean bind() {
+		if (listener != null || receiver != null) {
+			return true;
+		}
+		
 		try {
-			output.connect(addr);
+			listener = transport.bind(new InetSocketAddress("127.0.0.1", port));
 		} catch (IOException e) {
 			e.printStackTrace();
-			System.out.println("Error when trying to connect in node [" + address + "] !\n\n");
-			return;
+			System.out.println("Error when trying to bind port " + port + " in node [" + address + "] !\n\n");
+			return false;
 		}
+		return true;
 	}
 	
+	/**
+	 * Waits for the upstream node to connect to us on our port, claiming it first if we haven't yet. The accepted
+	 * link is read through a {@link ReceiveBuffer}, so it is non-blocking from here on out.
+	 */
 	public void listen() {
-		
-		ServerSocket sSock = null;
-		try {
-			sSock = new ServerSocket();
-			sSock.bind(new InetSocketAddress("127.0.0.1", port));
-		} catch (IOException e) {
-			System.out.println("Error when creating server socket!");
+		if (!bind() || listener == null) {
 			return;
 		}
 		
 		try {
-			input = sSock.accept();
-			sSock.close();
+			receiver = new ReceiveBuffer(listener.accept(ACCEPT_TIMEOUT), clock);
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.out.println("Error when trying to listen on server socket in node [" + address + "] !\n\n");
+		} finally {
+			try {
+				listener.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			listener = null;
 		}
 	}
 	
+	/**
+	 * @return Whether we're hooked up to both of our neighbors
+	 */
+	public boolean isConnected() {
+		return output != null && !output.isClosed() && receiver != null;
+	}
+	
 	/**
 	 * Begins the repeated execution of the node's processes, including:<br />
 	 * <ul>
@@ -128,350 +367,768 @@ public class Node extends Thread {
 	 */
 	public void run() {
 		
-		setup();
+		if (!isConnected()) {
+			setup(); //nobody bootstrapped us
+		}
 			
-		while (true) {
-			if (output == null || output.isClosed() || !output.isConnected()) {
-				//System.out.println("Error in node with address " + address + "!\nOutput socket is either closed, not connected, or "
-						//+ "it doesn't exist!");
-				continue;
+		while (step(POLL_TIME) != STEP_DEAD) {
+			;
+		}
+	}
+	
+	/**
+	 * Does one unit of work: either sends one of our frames (or the token) while we hold the token, or
+	 * handles the next frame coming in off the ring.<br />
+	 * {@link #run()} just calls this over and over, but it's public so something else (like the {@link EventLoop})
+	 * can drive a bunch of nodes from the same thread.
+	 * @param timeout How long to wait for a frame to show up, in milliseconds. 0 means don't wait at all
+	 * @return {@link #STEP_IDLE} if there was nothing to do, {@link #STEP_BUSY} if something was done,
+	 * or {@link #STEP_DEAD} once the node has been killed
+	 */
+	public int step(int timeout) {
+		if (output == null || output.isClosed()) {
+			//System.out.println("Error in node with address " + address + "!\nOutput socket is either closed, not connected, or "
+					//+ "it doesn't exist!");
+			return STEP_IDLE;
+		}
+		if (receiver == null) {
+			System.out.println("Error in node with address " + address + "!\nInput socket is either closed, not connected, or "
+					+ "it doesn't exist!");
+			return STEP_IDLE;
+		}
+		
+		//The active monitor's present frames, and our watch on them as a standby, go by the clock. If they only
+		//happened when nothing came in, a busy ring would never hear from its monitor
+		int control = duties != null ? duties.present() : standby();
+		if (control != STEP_IDLE) {
+			return control;
+		}
+		
+		//assume everything is okay. We don't care about server socket
+		if (awaitingReturn && (pendingReturns == 0 || clock.millis() >= returnDeadline)) {
+			//everything we sent this time has made it back around (or we gave up on it), so now we let go
+			awaitingReturn = false;
+			releaseToken(shareUsed);
+			return STEP_BUSY;
+		}
+		
+		if (this.hasToken && !awaitingReturn) {
+			//has token, so pass our own frames
+			if (input != null && messages.size() < readAhead / 2) {
+				readMessages();
 			}
-			if (input == null || input.isClosed() || !input.isConnected()) {
-				System.out.println("Error in node with address " + address + "!\nInput socket is either closed, not connected, or "
-						+ "it doesn't exist!");
-				continue;
+			
+			if (messages.isEmpty() || messages.highestPriority() < token.getPriority()) {
+				//pass token, because we don't need it (or nothing we have left is important enough to use it)
+				shareUsed = false;
+				if (!holdForReturn()) {
+					releaseToken(false);
+				}
+				return STEP_BUSY;
 			}
 			
-			//assume everything is okay. We don't care about server socket
-			if (this.hasToken) {
-				if (framesTransferred >= tokenHoldingTime) {
-					//we have passed all the frames we can, so we need to pass the token
-					this.hasToken = false;
-					Random rand = new Random();
-					if (rand.nextInt(20) == 0) {//5% for testing purposes.
-						System.out.println("Node [" + address + "] dropping the token, for testing purposes :D");
+			EncodedFrame msg = messages.peekFirst();
+			if (msg.isSequenced() && !msg.isNumbered() && !sendWindow(msg.getDestination()).hasRoom()) {
+				//can't have any more out to that node. Send one of the ones it hasn't taken yet instead, if there's one
+				//waiting. Otherwise they're all still out there, so we're done until some come back
+				msg = sendWindow(msg.getDestination()).oldestWaiting();
+				if (msg == null || msg.getPriority() < token.getPriority()) {
+					shareUsed = false;
+					if (!holdForReturn()) {
+						releaseToken(false);
 					}
-					else {
-						passToken(); 		
-					}
-					continue;
+					return STEP_BUSY;
 				}
-				//has token, so pass our own frames
-								
-				if (messages.isEmpty()) {
-					//pass token, because we don't need it
-					hasToken = false;
-					passToken();
-					continue;
+			}
+			if (!holding.allow(framesTransferred, msg.length())) {
+				//we have passed all the frames we can, so we need to pass the token
+				shareUsed = true;
+				if (!holdForReturn()) {
+					releaseToken(true);
 				}
-				else {
-					//have a frame to transfer
-					try {
-						//input is in format:
-						//   <Destination>, <size of data>, <data>
-						String msg = messages.get(0), pieces[];
-						pieces = msg.split(","); //told they are separated by commas
-						
-						if (pieces == null || pieces.length < 3) {
-							//wrong format
-							System.out.println("Invalid input format for node [" + address + "]:\n" + msg + "\n"
-									+ "Skipping this line in input...");
-							messages.remove(0);
-							continue;
-						}
-						
-						//address is first piece
-						byte addr = Byte.parseByte(pieces[0]);
-						int size = Integer.parseInt(pieces[1]);
-						byte data[] = pieces[2].getBytes("UTF-8");
-						
-						byte frame[] = assembleFrame(addr, size, data);
-						
-						send(frame);
-					} catch (IOException e) {
-						e.printStackTrace();
-						System.out.println("Error when trying to send a message in node [" + address + "]!\n"
-								+ "IOException generated when trying to send.");
-						continue;
-					}
-					
-	
-					sentMessages.add(messages.remove(0)); //transfer the message from 'need to send' to 'sent, waiting ack'
-					framesTransferred++; //keep count of how many 
-					//make sure the token has it's 'use' bit set
-					token.setUsed(true);
-					continue;
+				return STEP_BUSY;
+			}
+			else {
+				//have a frame to transfer. It was already built when it was loaded, so just send it
+				messages.remove(msg);
+				if (batching) {
+					msg = batch(msg); //or pack it in with whatever else is going to the same place
+				}
+				if (msg.isSequenced() && !msg.isNumbered()) {
+					//first time out. It keeps this number until it gets through
+					sendWindow(msg.getDestination()).open(msg);
+				}
+				try {
+					send(msg.bytes());
+				} catch (IOException e) {
+					e.printStackTrace();
+					System.out.println("Error when trying to send a message in node [" + address + "]!\n"
+							+ "IOException generated when trying to send.");
+					messages.addFirst(msg);
+					return STEP_BUSY;
 				}
+				
+
+				sentMessages.addLast(msg); //transfer the message from 'need to send' to 'sent, waiting ack'
+				msg.setInFlight(true);
+				metrics.sent.increment();
+				framesTransferred++; //keep count of how many 
+				pendingReturns++;
+				//make sure the token has it's 'use' bit set
+				token.setUsed(true);
+				return STEP_BUSY;
 			}
-			
-			//if it gets here, it either doesn't have the token or it doesn't have a message of its own to send.
-			//either way, we check our input and make sure we don't have anything that needs dealt with or passed along
-			int avail = 0;
-			
+		}
+		
+		//if it gets here, it either doesn't have the token or it doesn't have a message of its own to send.
+		//either way, we check our input and make sure we don't have anything that needs dealt with or passed along.
+		//The receive below parks on the link, so an idle node just sleeps until bytes show up
+		FrameView frame;
+		try {
+			frame = receiveFrame(receiver, view, timeout);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Error in node [" + address + "]! Encountered error when trying to receive a frame!");
+			return STEP_BUSY;
+		}
+		
+		//is frame null? If so, we just timed out... :(
+		if (frame == null) {
+			return duties != null ? duties.idle() : STEP_IDLE;
+		}
+		
+		//we got the whole frame. It's still sitting in our receive buffer, and that's where we'll
+		//read it from, change it and forward it from
+		
+		//is this a kill frame?
+		if (frame.isKill()) {
+			passKill();
 			try {
-				avail = input.getInputStream().available();
+				kill();
 			} catch (IOException e) {
 				e.printStackTrace();
-				System.out.println("Error encounted when trying to get the input stream for the socket of node [" + address + "]!");
-				continue;
+				System.out.println("Error when trying to kill node [" + address + "]!!");
 			}
-			
-			if (avail <= 0) {
-				//has nothing to receive
-				continue;
+			return STEP_DEAD;
+		}
+		
+		if (duties != null) {
+			//we're the active monitor, so we get a look at it first
+			int result = duties.frame(frame);
+			if (result != ActiveMonitor.PASS) {
+				return result;
 			}
-			
-			//has something to receive
-			byte[] header = new byte[5]; //5 bytes. This is taken straight from our specified frame specs given in the pdf!!!!
-										 //In this way, this is a magic number!!!
+		}
+		
+		//The monitor is purging the ring. If we were holding the token waiting for our frames to come back, they
+		//aren't coming, and the monitor is about to put out a new token. Let go of ours without passing it on.
+		//Whatever didn't make it goes out again next time we get the token
+		if (frame.isPurge()) {
+			giveUpToken();
 			try {
-				header = receive(5, 50); //tries to get the 5 byte header with a timeout time of only 50 millis
+				send(frame);
+				metrics.forwarded.increment();
 			} catch (IOException e) {
 				e.printStackTrace();
-				System.out.println("Error in node [" + address + "]! Encountered error when trying to receive header!");
-				continue;
+				System.out.println("Error when passing purge frame in node [" + address + "]!");
 			}
-			
-			//is header null? If so, we just timed out... :(
-			if (header == null) {
-				continue;
+			return STEP_BUSY;
+		}
+		
+		if (frame.isMonitorPresent() || frame.isClaim()) {
+			return standby(frame);
+		}
+		
+		//Is this the token?
+		if (frame.isToken()) {
+			this.hasToken = true;
+			framesTransferred = 0;
+			pendingReturns = 0;
+			recordToken();
+			if (token == null) {
+				token = new Token(frame);
+			} else {
+				token.load(frame);
 			}
-			
-			//we got our header!
-			//now how big is our frame supposed to be?
-			int size = (Frame.Header.getSize(header) & 0xFF); //the byte, when type cast to an int, keeps its sign. We want this as
-															//as an unsigned 0-255 instead of -128 - 127. So we do an AND, which
-															//keeps the bits but fills with 0s to be an int
-			
-			if (size == -1) {
-				//error occurred, as indicated in Frame.Header.getSize()
-				System.out.println("Error occured when trying to parse frame header in node [" + address + "]!\n"
-						+ "Discarding bad header and continuing from here...");
-				continue;
+			if (duties != null && duties.token(token)) {
+				hasToken = false; //the ring's finished, so it was drained
+				return STEP_BUSY;
 			}
 			
-			byte[] body = null;// = new byte[size + 1]; //+1 so we can get the FS byte at the end as well
-			
-			try {
-				body = receive(size + 1, 200 + (20 * size));//wait 200 milliseconds + 20 per extra byte cause reality
-			} catch (IOException e) {
-				e.printStackTrace();
-			} 
-			
-			if (body == null) {
-				System.out.println("Node [" + address + " timed out when waiting for message from " + Frame.Header.getSource(header));
-				//this is a big deal because we already have the header so we lost the packet somewhere!!
-				continue;
+			//receiving the token means any messages in our sentMessage list never was sent back an ACK following that the token
+			//is sent after the original message, which isn't ever sent out of order in relation to the token (even with priority)
+			if (sentMessages.isEmpty()) {
+				return takeToken(); //nothing in the list so we just ignore for now
 			}
 			
-			byte[] frame = new byte[header.length + body.length];
-			for (int i = 0; i < header.length + body.length; i++) {
-				if (i < header.length) {
-					frame[i] = header[i];
-				}
-				else {
-					frame[i] = body[i - header.length];
+			//instead of just copying over the messages to the end of the list, or pushing to the front of the list, we
+			//walk the list backward and push to the front. This preserves the order and makes the messages that never
+			//got ack be sent right away before sending even more messages
+			//Frames we already heard back about are still in the list, but aren't in flight anymore, so skip those.
+			//Only the ones that never came back go again, and they keep their sequence numbers
+			Iterator<EncodedFrame> it = sentMessages.descendingIterator(); //starts at the last message
+			while (it.hasNext()) {
+				EncodedFrame msg = it.next();
+				if (!msg.isInFlight()) {
+					continue;
 				}
+				msg.setInFlight(false);
+				messages.addFirst(msg);
 			}
 			
-			//is this a kill frame?
-			if (Frame.Header.isKill(header)) {
-				passKill();
+			sentMessages.clear();
+			
+			return takeToken();
+		}
+		
+		//anything going past us is a chance to ask for a higher priority token next time around
+		if (frame.getSource() != address) {
+			reserve(frame);
+		}
+		
+		//check dest. and source. If we are dest, process as receipt. If we are source,
+		//process as a drain. If neither, pass along.
+		if (frame.getDestination() == address) {
+			//we are destination! Accept it!
+			
+			//Before accepting/rejecting the frame, make sure it hasn't already been received and is orphaned.
+			//this is done by making sure the FS byte is 0 instead of 2 or 3 or anything else.
+			if (frame.getFrameStatus() != 0) {
+				//was already received and marked as such
+				//just pass it along
 				try {
-					kill();
+					send(frame);
+					metrics.forwarded.increment();
 				} catch (IOException e) {
 					e.printStackTrace();
-					System.out.println("Error when trying to kill node [" + address + "]!!");
 				}
-				return;
-			}
-			
-			//Is this the token?
-			if (Frame.Header.isToken(header)) {
-				this.hasToken = true;
-				framesTransferred = 0;
-  				token = new Token(frame);
-  				
-  				//receiving the token means any messages in our sentMessage list never was sent back an ACK following that the token
-  				//is sent after the original message, which isn't ever sent out of order in relation to the token (even with priority)
-  				if (sentMessages.isEmpty()) {
-  					continue; //nothing in the list so we just ignore for now
-  				}
-  				
-  				//instead of just copying over the messages to the end of the list, or pushing to the front of the list, we
-  				//walk the list backward and push to the front. This preserves the order and makes the messages that never
-  				//got ack be sent right away before sending even more messages
-  				ListIterator<String> it = sentMessages.listIterator(sentMessages.size() - 1); //iterator set to the last message
-  				messages.add(0, it.next()); //adds element[size() - 1]
-  				it.previous(); //need to step backwards so we dont get a duplicate
-  				while (it.hasPrevious()) {
-  					messages.add(0, it.previous());
-  				}
-  				
-  				sentMessages.clear();
-  				
-				continue;
+				return STEP_BUSY;
 			}
 			
-			//we got the header and the body. Or at least enough bytes to pretend we did
-			
-			//check dest. and source. If we are dest, process as receipt. If we are source,
-			//process as a drain. If neither, pass along.
-			if (Frame.Header.getDestination(header) == address) {
-				//we are destination! Accept it!
-				
-				//FS is frame[length - 1]
+			//anything with a sequence number might be something we already took, sent again because the source
+			//never heard back about it. We say the same thing we did last time, without writing it out again
+			ReceiveWindow received = null;
+			if (frame.hasSequence()) {
+				received = receiveWindow(frame.getSource());
+				int sequence = frame.getSequence();
+				if (received.isDuplicate(sequence)) {
+					if (frame.isBatch()) {
+						markBatch(frame, received.acceptedMask(sequence));
+					}
+					frame.setFrameStatus((byte) 2);
+					metrics.duplicate.increment();
+				} else if (!received.inWindow(sequence)) {
+					//further ahead than the source should ever get. We can't keep track of it, so it has to try again
+					frame.setFrameStatus((byte) 3);
+					metrics.rejected.increment();
+				}
 				
-				//Before accepting/rejecting the frame, make sure it hasn't already been received and is orphaned.
-				//this is done by making sure the FS byte is 0 instead of 2 or 3 or anything else.
-				if (frame[frame.length - 1] != 0) {
-					//was already received and marked as such
-					//just pass it along
+				if (frame.getFrameStatus() != 0) {
 					try {
 						send(frame);
 					} catch (IOException e) {
 						e.printStackTrace();
+						System.out.println("Error encountered when node [" + address + "] was trying to pass back a repeated frame!");
 					}
-					continue;
-				}
-				
-				//we have to decide if we're going to accept or reject, as specifies in the PDF
-				//have a 20 percent chance of rejecting, or 1/5
-				Random rand = new Random();
-				if (rand.nextInt(5) == 0) { //if (0, 1, 2, 3, or 4) == 0
-					//.2 chance of getting here
-					frame[frame.length-1] = 3; //rejected
-					System.out.println("Node [" + address + "] rejected incoming frame as part of testing...");
-				}
-				else {
-					frame[frame.length - 1] = 2;
-					//if we're here, it means it's our message and we need to process it
-					//as described in project specs, we write the addresses, size, and data to output file
-					byte[] data = Frame.getData(frame);
-					writer.println(Frame.Header.getSource(header) + "," + address + "," + size + "," + new String(data));
-										
-					writer.flush();
+					return STEP_BUSY;
 				}
+			}
+			
+			if (frame.isBatch()) {
+				//every message in a batch gets accepted or rejected on its own
+				received.mark(frame.getSequence(), acceptBatch(frame));
 				try {
 					send(frame);
 				} catch (IOException e) {
 					e.printStackTrace();
-					System.out.println("Error encountered when node [" + address + "] was trying to pass back an accepted frame!");
-				}
-				continue;
-			}
-			else if (Frame.Header.getSource(header) == address) {
-				//We are the source. Did it make to the destination??
-				//check the FS byte
-				byte FS = Frame.getFrameStatus(frame);
-				if (FS == -1) {
-					//error
-					System.out.println("Encountered non-fatal error when processing incoming message from [" + Frame.Header.getSource(header) + "] "
-							+ "in node [" + address + "] : FS is set to -1!");
-					continue; //drains the frame by not sendin git
+					System.out.println("Error encountered when node [" + address + "] was trying to pass back a batch frame!");
 				}
-				if (FS == 2) {
-					//it was accepted. Drain it.
-					//Actually, simulate the 'orphaning' of a frame here. We are told we have a 
-					
-					//we needto clear it out of our sendMessages list to indicate it's been transferred and everything worked
-					//Assemble original message from frame
-					String msg;
-					//<dest>,<size>,<data>
-					msg = "";
-					msg += Frame.Header.getDestination(header) + ",";
-					msg += (Frame.Header.getSize(header) & 0xFF) + ",";
-					msg += new String(Frame.getData(frame));
-					sentMessages.remove(msg);
+				return STEP_BUSY;
+			}
+			
+			//we have to decide if we're going to accept or reject, as specifies in the PDF
+			//have a 20 percent chance of rejecting, or 1/5 (or whatever the fault injector was set up with)
+			if (frame.isFragment() && !reassembler.hasRoom(frame)) {
+				//we're putting together as many messages as we can keep track of. This one has to wait its turn
+				frame.setFrameStatus((byte) 3);
+				metrics.rejected.increment();
+			}
+			else if (faults.inject(FaultInjector.REJECT)) {
+				frame.setFrameStatus((byte) 3); //rejected
+				metrics.rejected.increment();
+				System.out.println("Node [" + address + "] rejected incoming frame as part of testing...");
+			}
+			else {
+				frame.setFrameStatus((byte) 2);
+				metrics.accepted.increment();
+				if (received != null) {
+					received.mark(frame.getSequence(), 0);
 				}
-				else if (FS == 3){
-					//rejected
-					//have to add frame to be sent again
-					//have to fetch message form back from the frame format
-					String msg;
-					//<dest>,<size>,<data>
-					msg = "";
-					msg += Frame.Header.getDestination(header) + ",";
-					msg += (Frame.Header.getSize(header) & 0xFF) + ",";
-					msg += new String(Frame.getData(frame));
-					//push messages back to the front of the queue
-					messages.add(0, msg); //sets it to front of the list
-					sentMessages.remove(msg);
+				//if we're here, it means it's our message and we need to process it
+				//as described in project specs, we write the addresses, size, and data to output file
+				if (frame.isFragment()) {
+					//only written once we've got every piece
+					byte[] whole = reassembler.add(frame);
+					if (whole != null) {
+						writeOutput(frame.getSource(), whole, 0, whole.length, false, 0);
+					}
+				} else {
+					writeOutput(frame);
 				}
-				else if (FS == 0) {
-					continue;
+			}
+			try {
+				send(frame);
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println("Error encountered when node [" + address + "] was trying to pass back an accepted frame!");
+			}
+			return STEP_BUSY;
+		}
+		else if (frame.getSource() == address) {
+			//one of ours made it all the way around, whether anybody took it or not
+			if (pendingReturns > 0) {
+				pendingReturns--;
+			}
+			if (awaitingReturn && frame.getReservation() > token.getReservation()) {
+				//we're still holding the token, so whoever reserved on our frame gets it on the token we pass
+				token.setReservation(frame.getReservation());
+			}
+			
+			//We are the source. Did it make to the destination??
+			//check the FS byte
+			byte FS = frame.getFrameStatus();
+			if (frame.isBatch() && FS != 0) {
+				//the frame as a whole was read. Which of the messages in it got through is up to each message
+				EncodedFrame msg = removeSent(frame, true);
+				if (msg != null && msg.isBatch()) {
+					requeueRejected(frame, msg.getMembers());
 				}
+			}
+			else if (FS == 2) {
+				//it was accepted. Drain it.
+				//Actually, simulate the 'orphaning' of a frame here. We are told we have a 
 				
-				//Regardless of if it was properly received or rejected, we now have a chance of 'forgetting' to 
-				//drain the frame. Chance is ~2%. WE're going to make ours exactly 2%
-				Random rand = new Random();
-				int roll = rand.nextInt(100);
-				if (roll < 2) { //if roll == 0 or 1, where roll is 0-99 inclusive
-					//transfer the frame, simulating 'forgetting to drain'.
-					System.out.println("Node [" + address + "] 'forgetting' to drain own frame!");
-					try {
-						send(frame);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
+				//we needto clear it out of our sendMessages list to indicate it's been transferred and everything worked
+				removeSent(frame, true);
+			}
+			else if (FS == 3){
+				//rejected
+				//have to add frame to be sent again
+				EncodedFrame msg = removeSent(frame, false);
+				if (msg != null) {
+					//push messages back to the front of the queue. It keeps its sequence number
+					messages.addFirst(msg);
 				}
-				
+				//else the token already came back and put it back in line for us
+			}
+			else if (FS == 0) {
+				return STEP_BUSY;
+			}
+			
+			//Regardless of if it was properly received or rejected, we now have a chance of 'forgetting' to 
+			//drain the frame. Chance is ~2% by default
+			if (faults.inject(FaultInjector.FORGET_DRAIN)) {
+				//transfer the frame, simulating 'forgetting to drain'.
+				System.out.println("Node [" + address + "] 'forgetting' to drain own frame!");
+				try {
+					send(frame);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			} else {
+				metrics.drained.increment();
+			}
+			
+		}
+		else {
+			//not our frame, just pass it on. Straight out of our receive buffer, no copying
+			try {
+				send(frame);
+				metrics.forwarded.increment();
+				return STEP_BUSY;
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println("Error when passing token originally from [" + frame.getSource() + "] in node "
+						+ "[" + address + "]!");
+				return STEP_BUSY;
+			}
+		}
+		
+		return STEP_BUSY;
+	}
+	
+	/**
+	 * In normal (not early) token release mode, starts waiting for the frames we sent this time around to come back
+	 * before we let go of the token. We keep handling frames off the ring in the meantime.
+	 * @return true if we're now waiting, false if the token should go right away
+	 */
+	private boolean holdForReturn() {
+		if (earlyRelease || pendingReturns == 0) {
+			return false;
+		}
+		
+		awaitingReturn = true;
+		returnDeadline = clock.millis() + RETURN_TIMEOUT;
+		return true;
+	}
+	
+	/**
+	 * Called when the token shows up. Decides if we get to use it, following 802.5 priority rules:
+	 * <ul><li>If we raised the token's priority earlier and it's come back at that priority, we either lower it
+	 * back down or keep it up for whoever has reserved it since</li>
+	 * <li>If we have a frame at least as important as the token's priority, we keep it and start sending</li>
+	 * <li>Otherwise we reserve it at the priority of our most important frame (if that's higher than what's
+	 * already reserved) and send it right along</li></ul>
+	 * @return the step result
+	 */
+	private int takeToken() {
+		if (input != null && messages.size() < readAhead / 2) {
+			readMessages();
+		}
+		
+		int priority = token.getPriority();
+		
+		//a new token from the monitor (or one somebody else already lowered) means our raises don't matter anymore
+		while (raises > 0 && raisedTo[raises - 1] > priority) {
+			raises--;
+		}
+		
+		if (raises > 0 && raisedTo[raises - 1] == priority) {
+			//we're the ones who raised it to this. Whoever needed it this high has had their chance
+			int reserved = token.getReservation(), previous = raisedFrom[raises - 1];
+			if (reserved > previous) {
+				//someone still wants it higher than it used to be, so only come down as far as they need
+				raisedTo[raises - 1] = reserved;
+				token.setPriority(reserved);
+			} else {
+				raises--;
+				token.setPriority(previous);
+			}
+			token.setReservation(0);
+			priority = token.getPriority();
+		}
+		
+		int mine = messages.highestPriority();
+		if (mine != -1 && mine >= priority) {
+			holding.visitStarted(queued());
+			return STEP_BUSY; //it's ours. Next step starts sending
+		}
+		
+		//we can't use it. Ask for it if we have anything, and pass it on
+		hasToken = false;
+		if (mine != -1) {
+			if (mine > token.getReservation()) {
+				token.setReservation(mine);
+			}
+			token.setUsed(true); //we still have stuff to send, so the ring isn't done
+		}
+		passToken();
+		return STEP_BUSY;
+	}
+	
+	/**
+	 * Updates the metrics that get checked every time the token comes by: how long it's been since last time, and
+	 * how much we have waiting.
+	 */
+	protected void recordToken() {
+		long now = clock.nanos();
+		if (lastTokenTime != Long.MIN_VALUE) {
+			metrics.tokenRotation.record(now - lastTokenTime);
+		}
+		lastTokenTime = now;
+		metrics.queueDepth.set(messages == null ? 0 : queued());
+	}
+	
+	/**
+	 * @return About how many frames we still have to send: what's queued, plus a guess at what's left in the
+	 * input file
+	 */
+	private long queued() {
+		return messages.size() + (input == null ? 0 : input.estimateRemaining());
+	}
+	
+	/**
+	 * Stamps a reservation on a frame going by if we have something more important waiting than what's already
+	 * reserved on it.
+	 * @param frame
+	 */
+	private void reserve(FrameView frame) {
+		int mine = messages.highestPriority();
+		if (mine > frame.getReservation()) {
+			frame.setReservation(mine);
+		}
+	}
+	
+	/**
+	 * Lets go of the token and passes it on.<br />
+	 * If someone reserved a priority higher than the token's (or we still have something that important), the
+	 * token goes out at that priority instead, and we remember to bring it back down later.
+	 * @param mayDrop Whether this is a chance to drop the token on purpose, for testing
+	 */
+	private void releaseToken(boolean mayDrop) {
+		hasToken = false;
+		holding.visitEnded(queued());
+		
+		int priority = token.getPriority(), wanted = Math.max(token.getReservation(), messages.highestPriority());
+		if (wanted > priority) {
+			raisedFrom[raises] = priority;
+			raisedTo[raises] = wanted;
+			raises++;
+			token.setPriority(wanted);
+			token.setReservation(0);
+		}
+		
+		if (mayDrop) {
+			if (faults.inject(FaultInjector.DROP_TOKEN)) {//5% by default, for testing purposes.
+				System.out.println("Node [" + address + "] dropping the token, for testing purposes :D");
+				return;
+			}
+		}
+		passToken();
+	}
+	
+	/**
+	 * Registers the sockets this node reads from with the passed selector, so whoever owns the selector knows
+	 * when to call {@link #step(int)} on us. The node is used as the key's attachment.
+	 * @param selector
+	 * @return false if any of our links can't be selected on. The selector still gets woken up when those have
+	 * data, but the caller has to step us to find out which node it was for
+	 * @throws IOException
+	 */
+	public boolean register(Selector selector) throws IOException {
+		if (receiver != null) {
+			return receiver.register(selector, this);
+		}
+		return true;
+	}
+	
+	/**
+	 * @return When this node next has to be {@link #step(int) stepped} even if nothing comes in for it, in
+	 * {@link #clock} milliseconds. Long.MAX_VALUE if it's only waiting on its link
+	 */
+	public long nextDeadline() {
+		long deadline = awaitingReturn ? returnDeadline : Long.MAX_VALUE;
+		if (duties != null) {
+			return Math.min(deadline, duties.nextDeadline());
+		}
+		if (claimSent != Long.MIN_VALUE) {
+			return Math.min(deadline, claimSent + STANDBY_TIMEOUT);
+		}
+		if (lastMonitorPresent != Long.MIN_VALUE) {
+			return Math.min(deadline, lastMonitorPresent + STANDBY_TIMEOUT);
+		}
+		return deadline;
+	}
+	
+	/**
+	 * @return Whether we're the active monitor and have issued the finish frame, since nobody had used the ring in a
+	 * whole trip of the token
+	 */
+	public boolean isFinished() {
+		return duties != null && duties.isFinished();
+	}
+	
+	/**
+	 * @return Whether we still have anything to send, or anything out on the ring we haven't heard back about
+	 */
+	protected boolean hasWork() {
+		return !messages.isEmpty() || !sentMessages.isEmpty() || (input != null && input.estimateRemaining() > 0);
+	}
+	
+	/**
+	 * Lets go of the token if we're holding on to it waiting for our frames to come back, without passing it on.
+	 * This is for when the ring's being purged, since the token's about to be replaced
+	 */
+	protected void giveUpToken() {
+		if (awaitingReturn) {
+			awaitingReturn = false;
+			hasToken = false;
+			pendingReturns = 0;
+			holding.visitEnded(queued());
+		}
+	}
+	
+	/**
+	 * As a standby monitor, this is where we notice that we haven't heard from the active monitor in too long, and
+	 * try to take over. It's checked every step, busy or not, but it only counts the active monitor's own present
+	 * frames: other traffic coming in doesn't mean there's a monitor, and it doesn't mean there isn't one either.
+	 * @return {@link #STEP_BUSY} if we sent a claim, {@link #STEP_IDLE} otherwise
+	 */
+	private int standby() {
+		long now = clock.millis();
+		if (lastMonitorPresent == Long.MIN_VALUE) {
+			lastMonitorPresent = now; //we've only just started listening
+			return STEP_IDLE;
+		}
+		
+		if (claimSent != Long.MIN_VALUE) {
+			if (now - claimSent < STANDBY_TIMEOUT) {
+				return STEP_IDLE;
 			}
-			else {
-				//not our frame, just pass it on
-				try {
-					send(frame);
-					continue;
-				} catch (IOException e) {
-					e.printStackTrace();
-					System.out.println("Error when passing token originally from [" + Frame.Header.getSource(header) + "] in node "
-							+ "[" + address + "]!");
-					continue;
-				}
+			System.out.println("Node [" + address + "]'s claim never came back around! Claiming again...");
+		} else {
+			if (now - lastMonitorPresent < STANDBY_TIMEOUT) {
+				return STEP_IDLE;
 			}
+			System.out.println("Node [" + address + "] hasn't heard from the active monitor in "
+					+ (now - lastMonitorPresent) + " ms! Claiming the token...");
 		}
+		claimSent = now;
+		passControl(9);
+		return STEP_BUSY;
 	}
 	
-	public void setup() {
+	/**
+	 * Handles an active monitor present frame or a claim frame, as a standby monitor.<br />
+	 * Claims are an election: the highest address wins. We throw away any claim from a lower address than ours
+	 * and send our own instead, and give up on ours if one from a higher address comes by. If ours makes it all the
+	 * way around, nobody outranks us, and we're the new active monitor.
+	 * @param frame
+	 * @return What our step should return
+	 */
+	private int standby(FrameView frame) {
+		int source = frame.getSource() & 0xFF, us = address & 0xFF;
+		if (frame.isMonitorPresent() && source == us) {
+			return STEP_BUSY; //from when we were the active monitor. We drain our own frames
+		}
+		if (frame.isMonitorPresent()) {
+			lastMonitorPresent = clock.millis();
+			if (claimSent != Long.MIN_VALUE) {
+				System.out.println("Node [" + address + "] heard from active monitor [" + frame.getSource()
+						+ "] and dropped its claim");
+				claimSent = Long.MIN_VALUE;
+			}
+		} else if (source == us) {
+			//ours made it all the way around
+			claimSent = Long.MIN_VALUE;
+			duties = new ActiveMonitor(this);
+			duties.takeOver(lastMonitorPresent);
+			return STEP_BUSY;
+		} else if (source < us) {
+			//we outrank them, so their claim stops here
+			if (claimSent == Long.MIN_VALUE) {
+				claimSent = clock.millis();
+				passControl(9);
+			}
+			return STEP_BUSY;
+		} else {
+			//they outrank us. Give them as long to take over as we'd give the active monitor
+			claimSent = Long.MIN_VALUE;
+			lastMonitorPresent = clock.millis();
+		}
 		
+		try {
+			send(frame);
+			metrics.forwarded.increment();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Error when passing monitor frame in node [" + address + "]!");
+		}
+		return STEP_BUSY;
+	}
+	
+	/**
+	 * Hooks us up to both neighbors: claims our port, connects to the next node (trying again until it's bound
+	 * too), and then waits for the node before us to connect.<br />
+	 * Nothing here waits on a neighbor to finish its own setup first, so every node in the ring can do this at
+	 * the same time. The {@link Bootstrap} does exactly that.
+	 */
+	public void setup() {
 		
-		System.out.println("node " + address + " listening to port " + port + "...");
+		bind();
+		System.out.println("node " + address + " connecting to port " + downstreamPort() + "...");
+		connect(new InetSocketAddress("127.0.0.1", downstreamPort()));
+		System.out.println("node " + address + " waiting on port " + port + "...");
 		listen();
-		System.out.println("node " + address + " connecting to port " + (port - 1) + "...");
-		connect(new InetSocketAddress("127.0.0.1", port - 1));
 		System.out.println("node " + address + " connected!");
 
 	}
 	
+	/**
+	 * @return The port the next node down the ring is bound to
+	 */
+	protected int downstreamPort() {
+		return port - 1;
+	}
+	
 	/**
 	 * Kills the node. This deals with the socket held by the node.
 	 * @throws IOException 
 	 */
 	public void kill() throws IOException {
 		System.out.println("Killing node [" + address + "]");
+		System.out.println("Node [" + address + "] faults injected: " + faults);
 		this.messages.clear();
 		this.messages = null;
-		if (input != null && !input.isClosed())
+		if (input != null) {
 			input.close();
+			input = null;
+		}
+		if (receiver != null)
+			receiver.close();
+		if (listener != null) {
+			listener.close();
+			listener = null;
+		}
 		if (output != null && !output.isClosed())
 			output.close();
-		writer.close();
+		if (writer != null)
+			writer.close();
+		if (index != null)
+			index.close();
 	}
 	
 	/**
-	 * Attempts to send the passed bytes through the output socket
+	 * Attempts to send the passed bytes through the output link
 	 * @param message
 	 * @throws IOException
 	 */
 	protected void send(byte[] message) throws IOException {
+		send(message, 0, message.length);
+	}
+	
+	/**
+	 * Forwards the frame the view points at, straight from wherever it's sitting.
+	 * @param frame
+	 * @throws IOException
+	 */
+	protected void send(FrameView frame) throws IOException {
+		send(frame.buffer().array(), frame.buffer().arrayOffset() + frame.offset(), frame.length());
+	}
+	
+	/**
+	 * Sends a frame that was built in an array from the {@link FramePool}, then releases the array back to the
+	 * pool. Only as many bytes as the frame's size byte says are sent. The array can't be used after this.
+	 * @param frame
+	 * @throws IOException
+	 */
+	protected void sendPooled(byte[] frame) throws IOException {
+		if (frame == null) {
+			return;
+		}
+		
+		try {
+			send(frame, 0, Frame.headerLength + (frame[4] & 0xFF) + 1);
+		} finally {
+			pool.release(frame);
+		}
+	}
+	
+	/**
+	 * Sends <i>length</i> bytes of <i>message</i>, starting at <i>offset</i>, through the output link
+	 * @param message
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	protected void send(byte[] message, int offset, int length) throws IOException {
 		if (output == null || output.isClosed()) {
 			System.out.println("Error when trying to transmit frame by node with address " + address + "!\n"
 					+ "Output Socket is closed or does not exist!");
 			return;
 		}
 		
-		output.getOutputStream().write(message);
-		output.getOutputStream().flush();
+		output.write(message, offset, length);
 		
 	}
 	
@@ -482,22 +1139,14 @@ public class Node extends Thread {
 	 */
 	protected byte[] receive() throws IOException {
 		int size;
-		byte[] data;
-		InputStream ins;
-		ins = input.getInputStream();
-		size = ins.available();
+		size = receiver.available();
 		
 		if (size < 1) {
 			//less than to cover options
 			size = 16; 
 		}
 		
-		data = new byte[size];
-		
-		ins.read(data);
-		
-		
-		return data;
+		return receiver.read(size);
 	}
 	
 	/**
@@ -508,37 +1157,17 @@ public class Node extends Thread {
 	 * @throws IOException
 	 */
 	protected byte[] receive(int size) throws IOException {
-		byte[] data;
-
-		InputStream ins;
-		ins = input.getInputStream();
-		
-		data = new byte[size];
-		
-		while (ins.available() < size) {
-			try {
-				sleep(10); //to avoid trying every single cycle, sleep a few milliseconds and then try again
-			} catch (InterruptedException e) {
-				//Do nothing. An interupted thread is an interupted thread. WE are sleeping to waste time so this doesn't matter.
-				//at least how I understand it.
-			}
-		}
-		
-		ins.read(data);
-		
-		
-		return data;
-		
+		return receiver.read(size);
 	}
 	
 	/**
 	 * Tries to get the passed amount of bytes from the input socket.<br />
-	 * This method will block until the number of bytes is ready to be ready, or it times out.<br />
-	 * Timeout time is approximate. In reality, it will be rounded up to the next multiple of 10 milliseconds.
+	 * This method will block until the number of bytes is ready to be ready, or it times out. It wakes up as soon
+	 * as the bytes arrive instead of checking back every so often.
 	 * <p>
 	 * If, after the timeout period, the socket still does not have enough bytes of data to pass through this method,
-	 * it will instead return null. It will not read any bytes nor modify the socket in any way, even if the socket has
-	 * some amount of bytes (that's less than the requested size) ready to be delivered.
+	 * it will instead return null. It will not consume any bytes, even if some amount of bytes (that's less than the
+	 * requested size) has already arrived. Those stay buffered for the next call.
 	 * </p>
 	 * @param size How many bytes to try and receive
 	 * @param timeout The time until this method times out, in milliseconds
@@ -546,49 +1175,141 @@ public class Node extends Thread {
 	 * @throws IOException
 	 */
 	protected byte[] receive(int size, int timeout) throws IOException {
-		byte[] data;
-		int sleepCount = 0;
-
-		InputStream ins;
-		ins = input.getInputStream();
-		
-		data = new byte[size];
+		return receiver.read(size, timeout);
+	}
+	
+	/**
+	 * Returns the next byte in the queue. This will block if nothing is available.
+	 * @return
+	 * @throws IOException
+	 */
+	protected byte receiveByte() throws IOException {
+		return (byte) receiver.read();
 		
-		while (ins.available() < size) {
-			try {
-				sleep(10); //to avoid trying every single cycle, sleep a few milliseconds and then try again
-				//We have a timeout to keep in mind. We have to keep how long we've been sleeping and check it each time
-				sleepCount++;
-				if (sleepCount >= (timeout) / 10) {
-					break; //if we've slept past our timeout, break;
-				}
-			} catch (InterruptedException e) {
-				//Do nothing. An interupted thread is an interupted thread. WE are sleeping to waste time so this doesn't matter.
-				//at least how I understand it.
-			}
+	}
+	
+	/**
+	 * Waits for a whole frame to come in and points <i>view</i> at it, right where it sits in the receive buffer.<br />
+	 * The frame is consumed from the buffer, but its bytes stay put until the next time something is received
+	 * from <i>from</i>. So the view can be read, changed and {@link #send(FrameView) forwarded} until then.
+	 * <p>If the header shows up but the rest of the frame doesn't, nothing is consumed and null is returned. When
+	 * <i>timeout</i> is 0 we don't wait for the rest either, it will just get picked up next time.</p>
+	 * @param from Which receive buffer to read from
+	 * @param view The view to point at the frame
+	 * @param timeout How long to wait for the header to show up, in milliseconds
+	 * @return <i>view</i>, or null if no whole frame showed up in time
+	 * @throws IOException
+	 */
+	protected FrameView receiveFrame(ReceiveBuffer from, FrameView view, int timeout) throws IOException {
+		if (!from.await(Frame.headerLength, timeout)) {
+			return null;
 		}
 		
-		//do we still not have enough data (e.g. a timeout occured)
-		if (ins.available() < size) {
-			//timed out
+		int size = from.peek(4) & 0xFF; //size is the last header byte
+		if (timeout == 0) {
+			if (!from.await(Frame.headerLength + size + 1, 0)) {
+				return null;
+			}
+		} else if (!from.await(Frame.headerLength + size + 1, 200 + (20 * size))) { //wait 200 milliseconds + 20 per extra byte cause reality
+			System.out.println("Node [" + address + "] timed out when waiting for message from " + from.peek(3));
 			return null;
 		}
 		
-		ins.read(data);
-		
+		view.wrap(from.buffer(), from.position());
+		from.skip(view.length());
+		return view;
+	}
+	
+	/**
+	 * Writes out a frame we accepted. Normally that's a line of text, but it's a record in the binary log (plus
+	 * an entry in its index) if that's what we're using. See {@link OutputLog}.
+	 * @param frame
+	 */
+	protected void writeOutput(FrameView frame) {
+		writeOutput(frame.getSource(), frame.buffer().array(), frame.buffer().arrayOffset() + frame.payloadOffset(),
+				frame.getPayloadSize(), frame.hasSequence(), frame.hasSequence() ? frame.getSequence() : 0);
+	}
+	
+	/**
+	 * Writes out one message we accepted, wherever it came from.
+	 * @param source Who sent it
+	 * @param data
+	 * @param offset Where in <i>data</i> the message starts
+	 * @param length How long the message is
+	 * @param sequenced Whether the frame it came in had a sequence number
+	 * @param sequence That sequence number
+	 */
+	protected void writeOutput(byte source, byte[] data, int offset, int length, boolean sequenced, int sequence) {
+		if (writer == null) {
+			return;
+		}
 		
-		return data;
+		if (index == null) {
+			writer.write(OutputLog.textLine(source, address, data, offset, length));
+			return;
+		}
 		
+		byte flags = sequenced ? OutputLog.FLAG_SEQUENCED : 0;
+		byte[] record = OutputLog.logRecord(source, address, flags, sequence, data, offset, length);
+		index.write(OutputLog.indexEntry(source, flags, sequence, logPosition));
+		writer.write(record);
+		logPosition += record.length;
 	}
 	
 	/**
-	 * Returns the next byte in the queue. This will block if nothing is available.
-	 * @return
-	 * @throws IOException
+	 * Handles a batch frame addressed to us. Each message in it gets the same chance of being rejected that a
+	 * whole frame normally does, and each one we keep is written out on its own, just like it had come in
+	 * its own frame. Every message's status is filled in for the source to look at, and the frame's FS byte is
+	 * set to 2 so nobody else treats it as unread.
+	 * @param frame
+	 * @return Which messages we took, one bit each (bit 0 is the first)
 	 */
-	protected byte receiveByte() throws IOException {
-		return (byte) input.getInputStream().read();
+	protected int acceptBatch(FrameView frame) {
+		ByteBuffer buffer = frame.buffer();
+		int end = frame.dataOffset() + frame.getSize();
+		int count = buffer.get(frame.dataOffset() + Frame.sequenceLength) & 0xFF;
+		int position = frame.dataOffset() + Frame.batchHeaderLength;
+		int sequence = frame.getSequence(), rejected = 0, accepted = 0;
+		for (int i = 0; i < count && position + Frame.batchEntryLength <= end; i++) {
+			int length = Math.min(buffer.get(position) & 0xFF, end - position - Frame.batchEntryLength);
+			if (faults.inject(FaultInjector.REJECT)) {
+				buffer.put(position + 1, (byte) 3); //rejected
+				rejected++;
+				metrics.rejected.increment();
+			} else {
+				buffer.put(position + 1, (byte) 2);
+				accepted |= 1 << i;
+				metrics.accepted.increment();
+				writeOutput(frame.getSource(), buffer.array(), buffer.arrayOffset() + position + Frame.batchEntryLength,
+						length, true, sequence);
+			}
+			position += Frame.batchEntryLength + length;
+		}
 		
+		if (rejected > 0) {
+			System.out.println("Node [" + address + "] rejected " + rejected + " of " + count + " messages in a batch "
+					+ "as part of testing...");
+		}
+		frame.setFrameStatus((byte) 2);
+		return accepted;
+	}
+	
+	/**
+	 * Fills in the status of every message in a batch, like for one we've already handled, so it gets the same
+	 * answer it did the first time.
+	 * @param frame
+	 * @param accepted Which messages in it were accepted (bit 0 is the first), like
+	 * {@link #acceptBatch(FrameView)} returns. -1 for all of them
+	 */
+	protected void markBatch(FrameView frame, int accepted) {
+		ByteBuffer buffer = frame.buffer();
+		int end = frame.dataOffset() + frame.getSize();
+		int count = buffer.get(frame.dataOffset() + Frame.sequenceLength) & 0xFF;
+		int position = frame.dataOffset() + Frame.batchHeaderLength;
+		for (int i = 0; i < count && position + Frame.batchEntryLength <= end; i++) {
+			buffer.put(position + 1, (byte) ((accepted & (1 << i)) != 0 ? 2 : 3));
+			position += Frame.batchEntryLength + (buffer.get(position) & 0xFF);
+		}
 	}
 	
 	/**
@@ -597,14 +1318,18 @@ public class Node extends Thread {
 	public void passToken() {
 		byte t[];
 		
-		t = token.asBytes();
+		t = pool.acquire();
+		token.writeTo(t);
 		
 		try {
-			send(t);
+			sendPooled(t);
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.out.println("Failed to pass token in node [" + address + "]!");
 		}
+		if (duties != null) {
+			duties.tokenPassed();
+		}
 	}
 	
 	/**
@@ -612,7 +1337,7 @@ public class Node extends Thread {
 	 */
 	protected void passKill() {
 		//kill frame is any frame with a FC byte value of 2
-		byte[] kill = new byte[6];
+		byte[] kill = pool.acquire();
 		kill[0] = 0;
 		kill[1] = 2;
 		kill[2] = 0;
@@ -621,7 +1346,7 @@ public class Node extends Thread {
 		kill[5] = 0;
 		
 		try {
-			send(kill);
+			sendPooled(kill);
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.out.println("Unable to pass kill to output from node [" + address + "]!");
@@ -635,7 +1360,7 @@ public class Node extends Thread {
 	 */
 	protected void passFinish() {
 		//finish frame is much like a kill frame, except the FC byte is 3
-		byte[] finish = new byte[6];
+		byte[] finish = pool.acquire();
 		finish[0] = 0;
 		finish[1] = 3;
 		finish[2] = 0;
@@ -644,23 +1369,60 @@ public class Node extends Thread {
 		finish[5] = 0;
 		
 		try {
-			send(finish);
+			sendPooled(finish);
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.out.println("Unable to pass finish to output from node [" + address + "]!");
 		}
 	}
 	
+	/**
+	 * Passes one of the frames monitors use to look after the ring: a purge (FC of 7), an active monitor present
+	 * (8) or a claim (9). They're just a header, from and to us, with no data
+	 * @param type The FC byte
+	 */
+	protected void passControl(int type) {
+		byte[] control = pool.acquire();
+		control[0] = 0;
+		control[1] = (byte) type;
+		control[2] = address;
+		control[3] = address;
+		control[4] = 0;
+		control[5] = 0;
+		
+		try {
+			sendPooled(control);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Unable to pass monitor frame from node [" + address + "]!");
+		}
+	}
+	
 	
 	/**
 	 * Creates a frame with the given information. This handles putting the bytes in the right order.<br />
-	 * This defaults priority and reservation bits to 0
+	 * This defaults priority and reservation bits to 0. See {@link #assembleFrame(int, byte, int, byte[])} to pick a
+	 * priority<br />
+	 * The frame is built in an array from the {@link FramePool}, so it's probably longer than the frame itself.
+	 * Send it with {@link #sendPooled(byte[])}, which gives it back to the pool.
 	 * @param destination the byte-long address of the node to send to
 	 * @param size how big the data section is. This should only be up to 254 bytes..?
 	 * @param data an array of bytes that is the data.
 	 * @return
 	 */
 	protected byte[] assembleFrame(byte destination, int size, byte[] data) {
+		return assembleFrame(0, destination, size, data);
+	}
+	
+	/**
+	 * Same as {@link #assembleFrame(byte, int, byte[])}, but with a priority.
+	 * @param priority 0 to 7. Higher goes first
+	 * @param destination
+	 * @param size
+	 * @param data
+	 * @return
+	 */
+	protected byte[] assembleFrame(int priority, byte destination, int size, byte[] data) {
 		//little error checking first.
 		if (size != 0 && data == null) {
 			//not valid. We would accept data as null if size was 0
@@ -680,16 +1442,16 @@ public class Node extends Thread {
 		}
 		
 		
-		byte[] frame = new byte[size + 6]; //size of data plus 6 bytes of header + tailer
+		byte[] frame = pool.acquire(); //room for size of data plus 6 bytes of header + tailer
 		
-		//no priority info TODO
 		byte by;
 		by = 0;
-		//leave priority bits 0
+		//priority goes in the top 3 bits
+		by = (byte) ((priority & 7) << 5);
 		//set fourth bit to 1, because this is not a token
 		by = (byte) (by | 16); //16 is 0001 0000
 		//monitor bit defaults to 0 so we leave it 0
-		//reservation bits are unimplemented, so leave them 0
+		//reservation bits start at 0. Nodes we pass will fill them in
 		
 		frame[0] = by;
 		
@@ -717,8 +1479,377 @@ public class Node extends Thread {
 		return frame;
 	}
 	
+	/**
+	 * Finds the frame we sent that the view is looking at and marks it as no longer in flight.<br />
+	 * Sequenced frames are looked up in the window for their destination by sequence number, so this doesn't
+	 * depend on how many frames are out. Frames too big to carry a sequence number have to be found by comparing
+	 * their bytes instead.
+	 * <p>The frame stays in the sent list until the token comes back, but isn't put back in line then.</p>
+	 * @param frame
+	 * @param acknowledged Whether the destination took it. If it did, we're done with its sequence number too
+	 * @return The frame we sent, or null if we weren't waiting on it anymore
+	 */
+	private EncodedFrame removeSent(FrameView frame, boolean acknowledged) {
+		EncodedFrame msg;
+		if (frame.hasSequence()) {
+			SendWindow window = sendWindow(frame.getDestination());
+			msg = window.get(frame.getSequence());
+			if (msg == null || !msg.isInFlight()) {
+				return null; //a stale copy of something we already dealt with
+			}
+			msg.setInFlight(false);
+			if (acknowledged) {
+				window.acknowledge(frame.getSequence());
+			}
+			return msg;
+		}
+		
+		Iterator<EncodedFrame> it = sentMessages.iterator();
+		while (it.hasNext()) {
+			msg = it.next();
+			if (msg.isInFlight() && !msg.isSequenced() && msg.matches(frame)) {
+				msg.setInFlight(false);
+				return msg;
+			}
+		}
+		
+		return null;
+	}
+	
+	private SendWindow sendWindow(byte destination) {
+		SendWindow window = sendWindows[destination & 0xFF];
+		if (window == null) {
+			window = new SendWindow(windowSize);
+			sendWindows[destination & 0xFF] = window;
+		}
+		return window;
+	}
+	
+	private ReceiveWindow receiveWindow(byte source) {
+		ReceiveWindow window = receiveWindows[source & 0xFF];
+		if (window == null) {
+			window = new ReceiveWindow(windowSize);
+			receiveWindows[source & 0xFF] = window;
+		}
+		return window;
+	}
+	
+	/**
+	 * Looks at the status the destination gave each message in a batch that came back, and puts the ones
+	 * it didn't take back in line.
+	 * @param frame The batch, back from its trip around the ring
+	 * @param members What we packed into it
+	 */
+	private void requeueRejected(FrameView frame, EncodedFrame[] members) {
+		ByteBuffer buffer = frame.buffer();
+		int count = Math.min(members.length, buffer.get(frame.dataOffset() + Frame.sequenceLength) & 0xFF);
+		int[] statuses = new int[count];
+		int position = frame.dataOffset() + Frame.batchHeaderLength;
+		for (int i = 0; i < count; i++) {
+			statuses[i] = buffer.get(position + 1);
+			position += Frame.batchEntryLength + (buffer.get(position) & 0xFF);
+		}
+		
+		//walk backwards so they end up in the same order they were in before
+		for (int i = members.length - 1; i >= 0; i--) {
+			if (i >= count || statuses[i] != 2) {
+				messages.addFirst(members[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Packs <i>first</i> and as many other queued frames going to the same node (at the same priority) as will
+	 * fit into one batch frame. See {@link Frame.Header#isBatch(byte[])} for how it's laid out.<br />
+	 * Only frames with room for a sequence number are packed, since those are the ones small enough to share.
+	 * Fragments always go on their own, and so does anything already numbered, since it has to go again with the
+	 * same number. A batch that doesn't make it back is sent again whole.
+	 * @param first The frame we were about to send. It's already out of the queue
+	 * @return The batch, or <i>first</i> if nothing else could go with it
+	 */
+	private EncodedFrame batch(EncodedFrame first) {
+		if (!first.isSequenced() || first.isFragment() || first.isNumbered()) {
+			return first;
+		}
+		
+		int room = 254 - Frame.batchHeaderLength - Frame.batchEntryLength - first.payloadLength();
+		EncodedFrame[] members = new EncodedFrame[MAX_BATCH];
+		members[0] = first;
+		int count = 1;
+		while (count < MAX_BATCH && room > Frame.batchEntryLength) {
+			EncodedFrame next = messages.pollMatching(first.getPriority(), first.getDestination(),
+					room - Frame.batchEntryLength, BATCH_WINDOW);
+			if (next == null) {
+				break;
+			}
+			members[count++] = next;
+			room -= Frame.batchEntryLength + next.payloadLength();
+		}
+		
+		if (count == 1) {
+			return first;
+		}
+		
+		int size = 254 - room;
+		byte[] frame = new byte[Frame.headerLength + size + 1];
+		frame[0] = first.bytes()[0]; //same priority, and no reservation or monitor bit yet
+		frame[1] = 5;
+		frame[2] = first.getDestination();
+		frame[3] = address;
+		frame[4] = (byte) size;
+		frame[Frame.headerLength + Frame.sequenceLength] = (byte) count;
+		int position = Frame.headerLength + Frame.batchHeaderLength;
+		for (int i = 0; i < count; i++) {
+			EncodedFrame msg = members[i];
+			frame[position] = (byte) msg.payloadLength();
+			frame[position + 1] = 0;
+			System.arraycopy(msg.bytes(), msg.payloadOffset(), frame, position + Frame.batchEntryLength,
+					msg.payloadLength());
+			position += Frame.batchEntryLength + msg.payloadLength();
+		}
+		frame[position] = 0; //FS byte
+		
+		return new EncodedFrame(frame, Arrays.copyOf(members, count));
+	}
+	
+	/**
+	 * Streams this node's messages in from the passed file instead of having them all {@link #addMessage(String)
+	 * added} up front.<br />
+	 * The file is memory mapped and only read a little ahead of what's being sent, so it can be as big as it wants.
+	 * The first batch is read right away.
+	 * @param file
+	 * @return false if the file couldn't be opened
+	 */
+	public boolean setInput(File file) {
+		try {
+			input = new MappedInput(file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Unable to open input file for node [" + address + "]: " + file.getPath());
+			input = null;
+			return false;
+		}
+		
+		readMessages();
+		return true;
+	}
+	
+	/**
+	 * Tops our queue of messages back up from the input file. Closes the file once it's all been read.
+	 */
+	private void readMessages() {
+		try {
+			while (messages.size() < readAhead) {
+				byte[] line = input.nextLine();
+				if (line == null) {
+					input.close();
+					input = null;
+					return;
+				}
+				addMessage(line);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Error when reading input in node [" + address + "]! Skipping the rest of it.");
+			input = null;
+		}
+	}
+	
+	/**
+	 * Queues up a message from the input file. The line is parsed and built into a frame right here, so it never
+	 * has to be looked at again. A message too big for one frame is split up into fragments, which are all
+	 * queued one after the other.<br />
+	 * Lines that aren't valid are skipped.
+	 * @param msg A line in the format <i>&lt;destination&gt;,&lt;size of data&gt;,&lt;data&gt;</i>, optionally
+	 * followed by <i>,&lt;priority&gt;</i> (0 to 7)
+	 */
 	public void addMessage(String msg) {
-		messages.add(msg);
+		queue(encodeMessage(msg));
+	}
+	
+	/**
+	 * Same as {@link #addMessage(String)}, but with the raw bytes of the line.
+	 * @param line
+	 */
+	public void addMessage(byte[] line) {
+		queue(encodeMessage(line));
+	}
+	
+	private void queue(EncodedFrame[] frames) {
+		if (frames == null) {
+			return;
+		}
+		for (EncodedFrame frame : frames) {
+			messages.addLast(frame);
+		}
+	}
+	
+	/**
+	 * Turns a line of input into the frames that will carry it.
+	 * @param msg
+	 * @return the frames (just one unless the message had to be fragmented), or null if the line isn't valid
+	 */
+	protected EncodedFrame[] encodeMessage(String msg) {
+		try {
+			return encodeMessage(msg.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Turns the raw bytes of a line of input into the frames that will carry it. The line is picked apart right
+	 * where it is, so the data is copied exactly once, into the frame.
+	 * @param line
+	 * @return the frames (just one unless the message had to be fragmented), or null if the line isn't valid
+	 */
+	protected EncodedFrame[] encodeMessage(byte[] line) {
+		//input is in format:
+		//   <Destination>, <size of data>, <data>[, <priority>]
+		//told they are separated by commas. Priority is 0 to 7, and 0 if it's left off
+		int first = indexOf(line, ',', 0), second = -1, end = -1;
+		if (first != -1) {
+			second = indexOf(line, ',', first + 1);
+		}
+		if (second != -1) {
+			end = indexOf(line, ',', second + 1); //data only goes until the next comma, if there is one
+			if (end == -1) {
+				end = line.length;
+			}
+		}
+		
+		if (second == -1 || end == second + 1) {
+			//wrong format
+			System.out.println("Invalid input format for node [" + address + "]:\n" + new String(line) + "\n"
+					+ "Skipping this line in input...");
+			return null;
+		}
+		
+		byte frame[];
+		try {
+			//address is first piece
+			int addr = parseNumber(line, 0, first);
+			int size = parseNumber(line, first + 1, second);
+			int dataLength = end - second - 1;
+			if (addr < Byte.MIN_VALUE || addr > Byte.MAX_VALUE) {
+				throw new NumberFormatException();
+			}
+			int priority = 0;
+			if (end < line.length) {
+				int next = indexOf(line, ',', end + 1);
+				priority = parseNumber(line, end + 1, next == -1 ? line.length : next);
+				if (priority < 0 || priority >= SendQueue.PRIORITIES) {
+					throw new NumberFormatException();
+				}
+			}
+			
+			if (size == dataLength && size <= 254 - Frame.sequenceLength) {
+				//room for a sequence number in front of the data. It gets filled in when the frame is sent
+				byte sequenced[] = new byte[Frame.sequenceLength + size];
+				System.arraycopy(line, second + 1, sequenced, Frame.sequenceLength, size);
+				frame = assembleFrame(priority, (byte) addr, sequenced.length, sequenced);
+				if (frame != null) {
+					frame[1] = 4; //FC of 4 is a sequenced frame
+				}
+			} else if (size == dataLength) {
+				//too big for one frame
+				return fragment(priority, (byte) addr, line, second + 1, size);
+			} else {
+				frame = assembleFrame(priority, (byte) addr, size, Arrays.copyOfRange(line, second + 1, end));
+			}
+		} catch (NumberFormatException e) {
+			System.out.println("Invalid input format for node [" + address + "]:\n" + new String(line) + "\n"
+					+ "Skipping this line in input...");
+			return null;
+		}
+		
+		if (frame == null) {
+			return null; //assembleFrame already said why
+		}
+		
+		//keep a copy that's exactly as long as the frame, and give the big one back
+		byte[] exact = Arrays.copyOf(frame, Frame.headerLength + (frame[4] & 0xFF) + 1);
+		pool.release(frame);
+		return new EncodedFrame[] {new EncodedFrame(exact)};
+	}
+	
+	/**
+	 * Splits a message too big for one frame into {@link Frame.Header#isFragment(byte[]) fragments}. They all get
+	 * the same message number, and each one is sent (and accepted or rejected) on its own. The destination puts
+	 * them back together.
+	 * @param priority
+	 * @param destination
+	 * @param data
+	 * @param offset Where the message starts in <i>data</i>
+	 * @param size How long the message is
+	 * @return the fragments, in order, or null if the message is too big even for that
+	 */
+	private EncodedFrame[] fragment(int priority, byte destination, byte[] data, int offset, int size) {
+		int perFragment = 254 - Frame.fragmentHeaderLength;
+		int count = (size + perFragment - 1) / perFragment;
+		if (count > MAX_FRAGMENTS) {
+			System.out.println("Message of " + size + " bytes is too big for node [" + address + "] to send! Most "
+					+ "that fits is " + (MAX_FRAGMENTS * perFragment) + " bytes. Skipping it...");
+			return null;
+		}
+		
+		int message = nextMessage;
+		nextMessage = (nextMessage + 1) & 0xFFFF;
+		EncodedFrame[] fragments = new EncodedFrame[count];
+		for (int i = 0; i < count; i++) {
+			int length = Math.min(perFragment, size - (i * perFragment));
+			byte[] frame = new byte[Frame.headerLength + Frame.fragmentHeaderLength + length + 1];
+			frame[0] = (byte) (((priority & 7) << 5) | 16);
+			frame[1] = 6; //FC of 6 is a fragment
+			frame[2] = destination;
+			frame[3] = address;
+			frame[4] = (byte) (Frame.fragmentHeaderLength + length);
+			//sequence number is filled in when it's sent
+			frame[Frame.headerLength + 2] = (byte) (message >> 8);
+			frame[Frame.headerLength + 3] = (byte) message;
+			frame[Frame.headerLength + 4] = (byte) i;
+			frame[Frame.headerLength + 5] = (byte) count;
+			System.arraycopy(data, offset + (i * perFragment), frame, Frame.headerLength + Frame.fragmentHeaderLength,
+					length);
+			//FS byte is already 0
+			fragments[i] = new EncodedFrame(frame);
+		}
+		return fragments;
+	}
+	
+	private static int indexOf(byte[] line, char c, int from) {
+		for (int i = from; i < line.length; i++) {
+			if (line[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Reads a base 10 number out of the bytes from <i>start</i> up to (not including) <i>end</i>. Same rules as
+	 * Integer.parseInt, just without making a String first.
+	 * @throws NumberFormatException if it isn't a number
+	 */
+	private static int parseNumber(byte[] line, int start, int end) throws NumberFormatException {
+		boolean negative = false;
+		if (start < end && (line[start] == '-' || line[start] == '+')) {
+			negative = line[start] == '-';
+			start++;
+		}
+		if (start >= end || end - start > 9) {
+			throw new NumberFormatException();
+		}
+		
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			if (line[i] < '0' || line[i] > '9') {
+				throw new NumberFormatException();
+			}
+			value = (value * 10) + (line[i] - '0');
+		}
+		return negative ? -value : value;
 	}
 
 }
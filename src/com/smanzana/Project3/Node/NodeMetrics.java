@@ -0,0 +1,40 @@
+package com.smanzana.Project3.Node;
+
+import com.smanzana.Project3.Metrics.Counter;
+import com.smanzana.Project3.Metrics.Gauge;
+import com.smanzana.Project3.Metrics.Histogram;
+import com.smanzana.Project3.Metrics.Metrics;
+
+/**
+ * The metrics every node keeps about itself, all registered under the node's address:
+ * <ul><li><b>frames_sent</b>: frames of our own we put on the ring, counting every resend</li>
+ * <li><b>frames_forwarded</b>: frames we passed along that weren't ours to deal with</li>
+ * <li><b>frames_accepted</b> and <b>frames_rejected</b>: messages sent to us that we took or turned away. Each
+ * message in a batch counts on its own</li>
+ * <li><b>frames_duplicate</b>: frames sent to us that we'd already taken, so were just acknowledged again</li>
+ * <li><b>frames_drained</b>: frames of ours we took off the ring when they came back around</li>
+ * <li><b>token_rotation_ns</b>: how long between one time the token reaches us and the next</li>
+ * <li><b>queue_depth</b>: how many frames we had waiting the last time the token came by</li>
+ * <li><b>connect_retries</b>: how many times connecting to the next node had to be tried again because it
+ * wasn't bound yet</li></ul>
+ * @author Skyler
+ */
+public class NodeMetrics {
+
+	public final Counter sent, forwarded, accepted, rejected, duplicate, drained, connectRetries;
+	public final Histogram tokenRotation;
+	public final Gauge queueDepth;
+
+	public NodeMetrics(Metrics metrics, byte address) {
+		sent = metrics.counter(Metrics.name("frames_sent", address));
+		forwarded = metrics.counter(Metrics.name("frames_forwarded", address));
+		accepted = metrics.counter(Metrics.name("frames_accepted", address));
+		rejected = metrics.counter(Metrics.name("frames_rejected", address));
+		duplicate = metrics.counter(Metrics.name("frames_duplicate", address));
+		drained = metrics.counter(Metrics.name("frames_drained", address));
+		tokenRotation = metrics.histogram(Metrics.name("token_rotation_ns", address));
+		queueDepth = metrics.gauge(Metrics.name("queue_depth", address));
+		connectRetries = metrics.counter(Metrics.name("connect_retries", address));
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.smanzana.Project3.Node;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.smanzana.Project3.Frame.FrameView;
+
+/**
+ * Puts {@link com.smanzana.Project3.Frame.Frame.Header#isFragment(byte[]) fragmented} messages back together on
+ * the receiving end.<br />
+ * Fragments can show up more than once (a rejected one gets sent again, and so does one whose frame never made it
+ * back to its source), so each piece is only kept the first time. Once a message is whole it's handed back, and
+ * we remember that it's done so late copies of its fragments don't start it all over again.
+ * <p>At most {@link #MAX_MESSAGES} messages (across every source) are put together at once, and one that's been
+ * started is never thrown out, since its source already heard we took those pieces and won't send them again.
+ * A fragment that would start another message has to be turned down instead (check {@link #hasRoom(FrameView)}
+ * first), and its source tries it again later. Only the last {@link #MAX_FINISHED} finished messages are
+ * remembered, which is fine since the receive windows catch most late copies before they get here anyways.</p>
+ * @author Skyler
+ */
+public class Reassembler {
+
+	/**
+	 * How many messages we put together at once, across every source
+	 */
+	public static final int MAX_MESSAGES = 64;
+
+	/**
+	 * How many finished messages we remember
+	 */
+	public static final int MAX_FINISHED = 64;
+
+	/**
+	 * The pieces of one message
+	 */
+	private static class Message {
+
+		private byte[][] parts;
+		private int received, length;
+
+		private Message(int count) {
+			parts = new byte[count][];
+			received = 0;
+			length = 0;
+		}
+
+	}
+
+	/**
+	 * Messages we have some, but not all, of the pieces of
+	 */
+	private Map<Integer, Message> messages;
+
+	/**
+	 * Messages we've put together, oldest first
+	 */
+	private Set<Integer> finished;
+
+	public Reassembler() {
+		messages = new HashMap<Integer, Message>();
+		finished = Collections.newSetFromMap(new LinkedHashMap<Integer, Boolean>(MAX_FINISHED * 2, 0.75f, false) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+				return size() > MAX_FINISHED;
+			}
+		});
+	}
+
+	/**
+	 * @param frame A fragment
+	 * @return Whether we can take it: it's part of a message we've already started (or finished), or there's
+	 * room to start another one
+	 */
+	public boolean hasRoom(FrameView frame) {
+		Integer key = key(frame);
+		return messages.size() < MAX_MESSAGES || messages.containsKey(key) || finished.contains(key);
+	}
+
+	/**
+	 * Takes in a fragment we accepted. Only accept fragments we {@link #hasRoom(FrameView) have room} for.
+	 * @param frame
+	 * @return The whole message, if this was the last piece of it. Null otherwise
+	 */
+	public byte[] add(FrameView frame) {
+		int count = frame.getFragmentCount(), index = frame.getFragmentIndex();
+		if (count == 0 || index >= count) {
+			return null;
+		}
+
+		Integer key = key(frame);
+		if (finished.contains(key)) {
+			return null; //already have all of it
+		}
+		Message message = messages.get(key);
+		if (message == null || message.parts.length != count) {
+			message = new Message(count);
+			messages.put(key, message);
+		}
+		if (message.parts[index] != null) {
+			return null; //already have it
+		}
+
+		byte[] part = new byte[frame.getPayloadSize()];
+		int offset = frame.payloadOffset();
+		for (int i = 0; i < part.length; i++) {
+			part[i] = frame.buffer().get(offset + i);
+		}
+		message.parts[index] = part;
+		message.length += part.length;
+		message.received++;
+
+		if (message.received < count) {
+			return null;
+		}
+
+		byte[] whole = new byte[message.length];
+		int position = 0;
+		for (byte[] piece : message.parts) {
+			System.arraycopy(piece, 0, whole, position, piece.length);
+			position += piece.length;
+		}
+		messages.remove(key);
+		finished.add(key);
+		return whole;
+	}
+
+	private static Integer key(FrameView frame) {
+		return ((frame.getSource() & 0xFF) << 16) | frame.getMessageNumber();
+	}
+
+}
@@ -0,0 +1,93 @@
+package com.smanzana.Project3.Node;
+
+/**
+ * The receiving half of a sliding window, kept per source. See {@link SendWindow}.<br />
+ * Remembers which sequence numbers we've already taken from the source, so a frame that shows up again (because
+ * the source never heard back about it) isn't written out twice. We just say yes to it again instead. For a batch,
+ * we also remember which of the messages in it we took, so we can give the same answer the second time.
+ * <p>Everything below the window's base has been taken. Numbers from there up to {@link #size()} past it might
+ * or might not have been. The source never sends anything past that, since it can't have more than that many
+ * frames out.</p>
+ * @author Skyler
+ */
+public class ReceiveWindow {
+
+	/**
+	 * The sequence number each slot was last used for (-1 if never), and what we said about it
+	 */
+	private int[] sequences, accepted;
+
+	/**
+	 * The oldest sequence number we haven't taken yet
+	 */
+	private int base;
+
+	/**
+	 * @param size Same size as the sender's window. Rounded up to a power of two
+	 */
+	public ReceiveWindow(int size) {
+		int slotCount = 1;
+		while (slotCount < size) {
+			slotCount *= 2;
+		}
+		sequences = new int[slotCount];
+		accepted = new int[slotCount];
+		for (int i = 0; i < slotCount; i++) {
+			sequences[i] = -1;
+		}
+		base = 0;
+	}
+
+	public int size() {
+		return sequences.length;
+	}
+
+	/**
+	 * @param sequence
+	 * @return Whether we've already taken the frame with this number
+	 */
+	public boolean isDuplicate(int sequence) {
+		int distance = (sequence - base) & 0xFFFF;
+		if (distance >= 0x8000) {
+			return true; //behind the window
+		}
+		return distance < sequences.length && sequences[sequence & (sequences.length - 1)] == sequence;
+	}
+
+	/**
+	 * @param sequence
+	 * @return Whether the number is one the source could be sending right now. Anything else can't be kept track
+	 * of
+	 */
+	public boolean inWindow(int sequence) {
+		return ((sequence - base) & 0xFFFF) < sequences.length;
+	}
+
+	/**
+	 * Remembers that we took the frame with this number.
+	 * @param sequence
+	 * @param acceptedMask For a batch, which messages in it we took (bit 0 is the first). Ignored otherwise
+	 */
+	public void mark(int sequence, int acceptedMask) {
+		if (!inWindow(sequence)) {
+			return;
+		}
+		int slot = sequence & (sequences.length - 1);
+		sequences[slot] = sequence;
+		accepted[slot] = acceptedMask;
+		while (sequences[base & (sequences.length - 1)] == base) {
+			base = (base + 1) & 0xFFFF;
+		}
+	}
+
+	/**
+	 * @param sequence
+	 * @return What was passed to {@link #mark(int, int)} for this number, or -1 (all of them) if we don't have it
+	 * anymore
+	 */
+	public int acceptedMask(int sequence) {
+		int slot = sequence & (sequences.length - 1);
+		return sequences[slot] == sequence ? accepted[slot] : -1;
+	}
+
+}
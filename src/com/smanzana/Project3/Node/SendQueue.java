@@ -0,0 +1,138 @@
+package com.smanzana.Project3.Node;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import com.smanzana.Project3.Frame.EncodedFrame;
+
+/**
+ * The frames a node still has to send, kept in one line per priority (0 to 7).<br />
+ * The front of the queue is always the oldest frame with the highest priority, and
+ * {@link #highestPriority()} is what the node asks for when deciding whether it can take the token or needs to
+ * reserve it instead.
+ * @author Skyler
+ */
+public class SendQueue {
+
+	public static final int PRIORITIES = 8;
+
+	private ArrayDeque<EncodedFrame>[] lines;
+	private int size;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public SendQueue() {
+		lines = new ArrayDeque[PRIORITIES];
+		for (int i = 0; i < PRIORITIES; i++) {
+			lines[i] = new ArrayDeque<EncodedFrame>();
+		}
+		size = 0;
+	}
+
+	/**
+	 * Puts the frame at the back of the line for its priority
+	 * @param frame
+	 */
+	public void addLast(EncodedFrame frame) {
+		lines[frame.getPriority()].addLast(frame);
+		size++;
+	}
+
+	/**
+	 * Puts the frame at the front of the line for its priority, so it's the next one out at that priority
+	 * @param frame
+	 */
+	public void addFirst(EncodedFrame frame) {
+		lines[frame.getPriority()].addFirst(frame);
+		size++;
+	}
+
+	/**
+	 * @return The next frame to send, or null if there isn't one
+	 */
+	public EncodedFrame peekFirst() {
+		int priority = highestPriority();
+		return priority == -1 ? null : lines[priority].peekFirst();
+	}
+
+	/**
+	 * Takes the next frame to send out of the queue
+	 * @return The frame, or null if there isn't one
+	 */
+	public EncodedFrame pollFirst() {
+		int priority = highestPriority();
+		if (priority == -1) {
+			return null;
+		}
+		size--;
+		return lines[priority].pollFirst();
+	}
+
+	/**
+	 * Takes the first frame out of the line for <i>priority</i> that's going to <i>destination</i> and could be
+	 * packed into a batch (it has room for a sequence number but hasn't been given one yet, and its message isn't
+	 * bigger than <i>maxLength</i>). Only the first <i>window</i> frames in the line are looked at, so this stays
+	 * cheap no matter how long the line gets.
+	 * @param priority
+	 * @param destination
+	 * @param maxLength Biggest message, in bytes, that still fits
+	 * @param window
+	 * @return The frame, or null if none of them fit
+	 */
+	public EncodedFrame pollMatching(int priority, byte destination, int maxLength, int window) {
+		Iterator<EncodedFrame> it = lines[priority].iterator();
+		for (int i = 0; i < window && it.hasNext(); i++) {
+			EncodedFrame frame = it.next();
+			if (frame.getDestination() == destination && frame.isSequenced() && !frame.isBatch()
+					&& !frame.isFragment() && !frame.isNumbered() && frame.payloadLength() <= maxLength) {
+				it.remove();
+				size--;
+				return frame;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Takes one particular frame out of the queue, wherever it is in line.
+	 * @param frame
+	 * @return false if it wasn't in the queue
+	 */
+	public boolean remove(EncodedFrame frame) {
+		if (lines[frame.getPriority()].removeFirstOccurrence(frame)) {
+			size--;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return The priority of the most important frame waiting, or -1 if there are none
+	 */
+	public int highestPriority() {
+		if (size == 0) {
+			return -1;
+		}
+		for (int i = PRIORITIES - 1; i >= 0; i--) {
+			if (!lines[i].isEmpty()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		for (ArrayDeque<EncodedFrame> line : lines) {
+			line.clear();
+		}
+		size = 0;
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.smanzana.Project3.Node;
+
+import com.smanzana.Project3.Frame.EncodedFrame;
+
+/**
+ * The sending half of a sliding window, kept per destination.<br />
+ * A frame gets its sequence number the first time it's sent and keeps it until the destination takes it, no matter
+ * how many times it has to be sent again. That's what lets the destination's {@link ReceiveWindow} spot copies
+ * it's already seen. Only frames from the oldest one nobody has taken yet up to {@link #size()} past it can be
+ * out at once, so the destination only ever has to remember that many.
+ * <p>Frames sit in the slot for their sequence number (the low bits of it) from when they're numbered until
+ * they're {@link #acknowledge(int) acknowledged}.</p>
+ * @author Skyler
+ */
+public class SendWindow {
+
+	private EncodedFrame[] slots;
+
+	/**
+	 * The oldest sequence number that hasn't been acknowledged, and the next one to give out
+	 */
+	private int base, next;
+
+	/**
+	 * @param size How many frames can be out at once. Rounded up to a power of two
+	 */
+	public SendWindow(int size) {
+		int slotCount = 1;
+		while (slotCount < size) {
+			slotCount *= 2;
+		}
+		slots = new EncodedFrame[slotCount];
+		base = 0;
+		next = 0;
+	}
+
+	public int size() {
+		return slots.length;
+	}
+
+	/**
+	 * @return Whether a new frame can be numbered right now
+	 */
+	public boolean hasRoom() {
+		return ((next - base) & 0xFFFF) < slots.length;
+	}
+
+	/**
+	 * Gives the frame the next sequence number and starts waiting on it. Only call this if there's
+	 * {@link #hasRoom() room}.
+	 * @param frame
+	 */
+	public void open(EncodedFrame frame) {
+		frame.setSequence(next);
+		frame.setNumbered(true);
+		slots[next & (slots.length - 1)] = frame;
+		next = (next + 1) & 0xFFFF;
+	}
+
+	/**
+	 * @param sequence
+	 * @return The frame we numbered with <i>sequence</i>, or null if it's already been acknowledged
+	 */
+	public EncodedFrame get(int sequence) {
+		if (((sequence - base) & 0xFFFF) >= ((next - base) & 0xFFFF)) {
+			return null; //not in the window
+		}
+		EncodedFrame frame = slots[sequence & (slots.length - 1)];
+		if (frame == null || frame.getSequence() != sequence) {
+			return null;
+		}
+		return frame;
+	}
+
+	/**
+	 * The destination took the frame with this number, so we're done with it. The window slides up past every
+	 * frame at the bottom that's been acknowledged.
+	 * @param sequence
+	 */
+	public void acknowledge(int sequence) {
+		EncodedFrame frame = get(sequence);
+		if (frame == null) {
+			return;
+		}
+		frame.setNumbered(false);
+		slots[sequence & (slots.length - 1)] = null;
+		while (base != next && slots[base & (slots.length - 1)] == null) {
+			base = (base + 1) & 0xFFFF;
+		}
+	}
+
+	/**
+	 * @return The oldest frame we numbered that isn't out on the ring right now (so it's waiting to be sent again),
+	 * or null if they're all out
+	 */
+	public EncodedFrame oldestWaiting() {
+		for (int sequence = base; sequence != next; sequence = (sequence + 1) & 0xFFFF) {
+			EncodedFrame frame = slots[sequence & (slots.length - 1)];
+			if (frame != null && !frame.isInFlight()) {
+				return frame;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,220 @@
+package com.smanzana.Project3.Node;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.smanzana.Project3.Transport.SimulatedTransport;
+import com.smanzana.Project3.Utils.VirtualClock;
+
+/**
+ * Runs a whole ring in simulated time, on one thread, as fast as the nodes can be stepped.<br />
+ * The nodes are the same ones that run for real; only their links (a {@link SimulatedTransport}) and their clock (a
+ * {@link VirtualClock}) are different. Instead of waiting on anything, the simulation keeps a queue of events:
+ * a node has bytes showing up on its link, or a node's {@link Node#nextDeadline() timer} runs out. It takes the
+ * earliest one, moves the clock up to it, and steps that node until it runs out of things to do, just like an
+ * {@link EventLoop} would. Whatever the node sends makes more events further along the ring.
+ * <p>Since time only passes when something's on a link, timeouts cost nothing. A 254 node ring spends exactly as
+ * long waiting on the monitor's lost token timeout as it would for real, but only in simulated time.</p>
+ * <p>There's no remote bridge to send the ring a kill once it's finished. An offline {@link Bridge} in the ring
+ * passes one itself, just like it would for real. Without one, the simulation has the monitor pass it (or whichever
+ * node is the {@link ActiveMonitor active monitor} by then). Everything's done once every node has been killed.</p>
+ * @author Skyler
+ */
+public class Simulation implements SimulatedTransport.Scheduler {
+
+	private List<Node> nodes;
+	private Map<Object, Integer> indices;
+	private SimulatedTransport transport;
+	private VirtualClock clock;
+
+	/**
+	 * The event queue, as a binary heap ordered by time: when each event happens (in nanoseconds) and which node
+	 * (by index) it's for
+	 */
+	private long[] times;
+	private int[] targets;
+	private int size;
+
+	/**
+	 * The latest timer event queued for each node, so the same one isn't queued again every time the node is stepped
+	 */
+	private long[] timers;
+	private boolean[] dead;
+
+	/**
+	 * Whether there's a bridge in the ring to kill it when it's finished
+	 */
+	private boolean bridged;
+
+	/**
+	 * How many times a node has been woken up so far
+	 */
+	private long events;
+
+	/**
+	 * @param nodes Every node in the ring, including the monitor. They should have been made while
+	 * {@link com.smanzana.Project3.Project3#transport} was <i>transport</i>
+	 * @param transport
+	 */
+	public Simulation(List<Node> nodes, SimulatedTransport transport) {
+		this.nodes = new ArrayList<Node>(nodes);
+		this.transport = transport;
+		this.clock = transport.getClock();
+		indices = new IdentityHashMap<Object, Integer>();
+		bridged = false;
+		for (int i = 0; i < this.nodes.size(); i++) {
+			indices.put(this.nodes.get(i), i);
+			bridged = bridged || this.nodes.get(i) instanceof Bridge;
+		}
+		times = new long[1024];
+		targets = new int[1024];
+		size = 0;
+		timers = new long[this.nodes.size()];
+		Arrays.fill(timers, Long.MAX_VALUE);
+		dead = new boolean[this.nodes.size()];
+		events = 0;
+	}
+
+	/**
+	 * Sets up every node and runs the ring until they've all been killed, or until <i>limit</i> milliseconds of
+	 * simulated time have passed.
+	 * @param limit Longest to run for, in simulated milliseconds. 0 or less runs until the ring is done
+	 */
+	public void run(long limit) {
+		transport.setScheduler(this);
+		for (Node n : nodes) {
+			n.setup();
+		}
+
+		for (int i = 0; i < nodes.size(); i++) {
+			Node n = nodes.get(i);
+			try {
+				n.register(null); //just tells the link who to wake up
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println("Unable to hook node [" + n.address + "] up to the simulation!");
+			}
+			push(clock.nanos(), i);
+		}
+
+		System.out.println("All nodes connected. Starting simulation...");
+		long start = System.currentTimeMillis();
+		long end = limit > 0 ? clock.nanos() + limit * 1000000 : Long.MAX_VALUE;
+		int live = nodes.size();
+		boolean killed = bridged;
+
+		while (size > 0 && live > 0) {
+			long time = times[0];
+			int target = targets[0];
+			pop();
+			if (time > end) {
+				System.out.println("Simulation ran out of time with " + live + " node(s) still going");
+				break;
+			}
+
+			clock.advanceTo(time);
+			if (dead[target]) {
+				continue;
+			}
+
+			events++;
+			Node n = nodes.get(target);
+			if (pump(n) == Node.STEP_DEAD) {
+				dead[target] = true;
+				live--;
+				continue;
+			}
+
+			long deadline = n.nextDeadline();
+			if (deadline != Long.MAX_VALUE && deadline * 1000000 != timers[target]) {
+				timers[target] = deadline * 1000000;
+				push(timers[target], target);
+			}
+
+			if (!killed && n.isFinished()) {
+				//this is where the remote bridge would send us a kill. Whoever's the active monitor by now sends it
+				killed = true;
+				n.passKill();
+			}
+		}
+
+		long elapsed = System.currentTimeMillis() - start;
+		System.out.println("Simulated " + clock.millis() + " ms of ring time in " + elapsed + " ms (" + events
+				+ " node wakeups)");
+		System.out.println("Links carried " + transport.getFrames() + " frames, " + transport.getBytes() + " bytes");
+	}
+
+	@Override
+	public void schedule(Object attachment, long nanos) {
+		Integer index = indices.get(attachment);
+		if (index != null) {
+			push(nanos, index);
+		}
+	}
+
+	/**
+	 * Steps the node until it doesn't have anything left to do right now.
+	 * @param n
+	 * @return The last result from the node's step
+	 */
+	private int pump(Node n) {
+		int result;
+		do {
+			result = n.step(0);
+		} while (result == Node.STEP_BUSY);
+		return result;
+	}
+
+	private void push(long time, int target) {
+		if (size == times.length) {
+			times = Arrays.copyOf(times, size * 2);
+			targets = Arrays.copyOf(targets, size * 2);
+		}
+
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (times[parent] <= time) {
+				break;
+			}
+			times[i] = times[parent];
+			targets[i] = targets[parent];
+			i = parent;
+		}
+		times[i] = time;
+		targets[i] = target;
+	}
+
+	/**
+	 * Takes the earliest event off the top of the heap.
+	 */
+	private void pop() {
+		size--;
+		long time = times[size];
+		int target = targets[size];
+
+		int i = 0;
+		while (true) {
+			int child = i * 2 + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && times[child + 1] < times[child]) {
+				child++;
+			}
+			if (time <= times[child]) {
+				break;
+			}
+			times[i] = times[child];
+			targets[i] = targets[child];
+			i = child;
+		}
+		times[i] = time;
+		targets[i] = target;
+	}
+
+}
@@ -2,6 +2,7 @@ package com.smanzana.Project3;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.LinkedList;
@@ -9,9 +10,23 @@ import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
 
+import com.smanzana.Project3.Frame.FramePool;
+import com.smanzana.Project3.Metrics.Metrics;
+import com.smanzana.Project3.Node.Bootstrap;
 import com.smanzana.Project3.Node.Bridge;
+import com.smanzana.Project3.Node.EventLoop;
+import com.smanzana.Project3.Node.FaultInjector;
+import com.smanzana.Project3.Node.HoldingPolicy;
 import com.smanzana.Project3.Node.Monitor;
 import com.smanzana.Project3.Node.Node;
+import com.smanzana.Project3.Node.Simulation;
+import com.smanzana.Project3.Transport.MemoryTransport;
+import com.smanzana.Project3.Transport.SimulatedTransport;
+import com.smanzana.Project3.Transport.TcpTransport;
+import com.smanzana.Project3.Transport.Transport;
+import com.smanzana.Project3.Utils.Clock;
+import com.smanzana.Project3.Utils.OutputWriter;
+import com.smanzana.Project3.Utils.VirtualClock;
 
 public class Project3 {
 	
@@ -20,6 +35,90 @@ public class Project3 {
 	public static int THT = 10;
 	public static Random rand;
 	
+	/**
+	 * How many event loop threads to drive the ring with. 0 (the default) gives every node its own thread instead.
+	 */
+	public static int eventLoops = 0;
+	
+	/**
+	 * What nodes in this process use to talk to each other. The bridge always talks to the remote bridge over TCP.
+	 */
+	public static Transport transport = new TcpTransport();
+	
+	/**
+	 * Where every node in this process gets arrays for the frames it builds
+	 */
+	public static FramePool framePool = new FramePool(256);
+	
+	/**
+	 * Writes every node's output file in the background. See {@link OutputWriter} for the flush intervals
+	 */
+	public static OutputWriter outputWriter = new OutputWriter(100);
+	
+	/**
+	 * Whether nodes write what they receive as a binary log with an index, instead of the usual text file
+	 */
+	public static boolean binaryOutput = false;
+	
+	/**
+	 * Whether nodes pass the token on right after their last frame (the default), or wait for their frames to come
+	 * back around first
+	 */
+	public static boolean earlyTokenRelease = true;
+	
+	/**
+	 * Which {@link HoldingPolicy} nodes use to decide how much they send per token visit
+	 */
+	public static String holdingPolicy = "fixed";
+	
+	/**
+	 * Whether nodes pack small frames for the same destination into one batch frame
+	 */
+	public static boolean batching = false;
+	
+	/**
+	 * How many frames a node can have out to one destination before it has to hear back about the oldest
+	 */
+	public static int windowSize = 64;
+	
+	/**
+	 * What each node's {@link FaultInjector} is set up with: the seed they're all made from, how likely each kind of
+	 * fault is (token drop, reject, forgetting to drain), and a file of faults to always do, if there is one.
+	 * The seed is random unless one's passed in, but it's always printed so a run can be done again
+	 */
+	public static long faultSeed = new Random().nextLong();
+	public static double[] faultRates = {0.05, 0.2, 0.02};
+	public static File faultScript = null;
+	
+	/**
+	 * How long the monitor does its job before crashing on purpose, in milliseconds, to test a standby monitor taking
+	 * over. 0 (the default) never crashes it
+	 */
+	public static long monitorCrash = 0;
+	
+	/**
+	 * What nodes measure their timeouts with. Only a simulation changes it
+	 */
+	public static Clock clock = Clock.SYSTEM;
+	
+	/**
+	 * Whether to run the ring as a {@link Simulation} in simulated time instead of for real, and how its links
+	 * behave: how long a byte takes to get across one, in microseconds, and how fast they send, in megabits
+	 * per second. It gives up after <i>simulateLimit</i> milliseconds of simulated time (0 never does)
+	 */
+	public static boolean simulate = false;
+	public static long linkLatency = 5;
+	public static long linkBandwidth = 16;
+	public static long simulateLimit = 60000;
+	
+	/**
+	 * Every metric the nodes keep. It can be served over HTTP on <i>metricsPort</i> (0 doesn't) and printed every
+	 * <i>metricsDump</i> milliseconds (0 doesn't)
+	 */
+	public static Metrics metrics = new Metrics();
+	public static int metricsPort = 0;
+	public static long metricsDump = 0;
+	
 	private static List<Node> nodeList;
 	
 	public static void main(String[] args) { //has to be 2 or more!
@@ -27,11 +126,34 @@ public class Project3 {
 		rand = new Random();
 		nodeList = new LinkedList<Node>();
 		
-		if (args.length != 1 && args.length != 2) {
+		List<String> positional = parseOptions(args);
+		if (positional == null || (positional.size() != 1 && positional.size() != 2)) {
 			//invalid args
-			System.out.println("Usage: java -jar jar_name.jar ring_config.conf [port offset]");
+			usage();
 			return;
 		}
+		args = positional.toArray(new String[positional.size()]);
+		System.out.println("Fault seed: " + faultSeed + " (pass --seed=" + faultSeed + " to do this run again)");
+		
+		if (metricsPort > 0) {
+			try {
+				metrics.serve(metricsPort);
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println("Unable to serve metrics on port " + metricsPort + "! Running without it...");
+			}
+		}
+		if (metricsDump > 0) {
+			metrics.dumpEvery(metricsDump, System.out);
+		}
+		
+		SimulatedTransport simulated = null;
+		if (simulate) {
+			VirtualClock virtual = new VirtualClock();
+			simulated = new SimulatedTransport(virtual, linkLatency * 1000, linkBandwidth * 1000000);
+			clock = virtual;
+			transport = simulated;
+		}
 		
 		//open file and make sure it's valid
 		File file = new File(args[0]);
@@ -64,6 +186,7 @@ public class Project3 {
 		int offset = 1;
 		Node node = null;
 		File fileIn;
+		List<Byte> addresses = new LinkedList<Byte>();
 		
 		System.out.println("Initializing nodes...");
 		while (input.hasNextLine()) {
@@ -75,38 +198,69 @@ public class Project3 {
 			System.out.print("Parsing input .. ");
 			parseInput(node, fileIn);
 			nodeList.add(node);
+			addresses.add(address);
 			offset++;
 			System.out.println("done");
 		}
 
 		
-		//load up the bridge file, which will have the bridge port number in it
-		File bridgeConf = new File("bridge.conf");
-		Scanner bridgeInfo;
-		try {
-			bridgeInfo = new Scanner(bridgeConf);
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			System.out.println("Unable to find bridge configuration files! The ring will work as if it's just a ring with no bridge.");
-			bridgeInfo = null;
-		}
-		
 		SocketAddress remoteAddress = null;
-		Bridge bridge;
-		if (bridgeInfo != null) {
-			remoteAddress = new InetSocketAddress("127.0.0.1", bridgeInfo.nextInt());
+		if (simulate) {
+			//there's no other ring in a simulation, so the bridge is always offline
+			System.out.println("Simulating the ring with an offline bridge.");
+		} else {
+			//load up the bridge file, which will have the bridge port number in it
+			File bridgeConf = new File("bridge.conf");
+			Scanner bridgeInfo;
+			try {
+				bridgeInfo = new Scanner(bridgeConf);
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+				System.out.println("Unable to find bridge configuration files! The ring will work as if it's just a ring with no bridge.");
+				bridgeInfo = null;
+			}
+			
+			if (bridgeInfo != null) {
+				remoteAddress = new InetSocketAddress("127.0.0.1", bridgeInfo.nextInt());
+			}
 		}
-		bridge = new Bridge(THT, (byte) 255, portOffset + offset, remoteAddress); //null if no remote bridge!
 		
+		Bridge bridge = new Bridge(THT, (byte) 255, portOffset + offset, remoteAddress); //null if no remote bridge!
+		for (byte address : addresses) {
+			bridge.addLocal(address);
+		}
 		nodeList.add(bridge);
 		offset++;
 		
 		Node monitor = new Monitor(THT, (byte) 0, portOffset, offset);
-		monitor.start();
 		//create monitor and set it to accept ocnnections on port (portoffset)
 		
-		for (Node n : nodeList) {
-			n.start();
+		if (simulate) {
+			List<Node> all = new LinkedList<Node>(nodeList);
+			all.add(0, monitor);
+			new Simulation(all, simulated).run(simulateLimit);
+		} else if (eventLoops > 0) {
+			//drive the whole ring from a few selector threads instead of a thread per node
+			List<Node> all = new LinkedList<Node>(nodeList);
+			all.add(0, monitor);
+			if (!new EventLoop(all, eventLoops).start()) {
+				System.out.println("Unable to hook the whole ring up! Exiting...");
+				System.exit(1);
+			}
+		} else {
+			//hook the whole ring up first, then give every node its thread
+			List<Node> all = new LinkedList<Node>(nodeList);
+			all.add(0, monitor);
+			Bootstrap bootstrap = new Bootstrap(all);
+			if (!bootstrap.run()) {
+				bootstrap.abort();
+				System.out.println("Unable to hook the whole ring up! Exiting...");
+				System.exit(1);
+			}
+			monitor.start();
+			for (Node n : nodeList) {
+				n.start();
+			}
 		}
 		
 		
@@ -256,28 +410,227 @@ public class Project3 {
 //		
  	}
 	
-	private static void parseInput(Node node, File fileIn) {
-		if (!fileIn.exists()) {
-			System.out.println("Unable to get input file: " + fileIn.getPath());
-			return;
-		}
+	private static void usage() {
+		System.out.println("Usage: java -jar jar_name.jar [options] ring_config.conf [port offset]");
+		System.out.println("Options:");
+		System.out.println("  --event-loops=N    Drive all nodes from N selector threads instead of one thread per node");
+		System.out.println("  --transport=T      How nodes talk to each other: tcp (default) or memory (no sockets, same JVM only)");
+		System.out.println("  --flush=F          When output files are flushed to disk: frame (every frame), shutdown (only at the end),");
+		System.out.println("                     or a number of milliseconds between flushes (default 100)");
+		System.out.println("  --fsync=S          on: make every flush wait until the output is on the disk, or off (default)");
+		System.out.println("  --output=O         Output file format: text (default) or binary (output-file-N.bin plus an index,");
+		System.out.println("                     read back with com.smanzana.Project3.Utils.OutputLogReader)");
+		System.out.println("  --token-release=R  early (default): pass the token right after the last frame, or normal: hold it");
+		System.out.println("                     until this node's frames have come back around");
+		System.out.println("  --holding=H        How much a node sends per token visit: fixed (THT frames, default),");
+		System.out.println("                     proportional (scaled to its queue) or drr (deficit round robin by bytes)");
+		System.out.println("  --batching=B       on: pack small frames going to the same node into one frame, or off (default)");
+		System.out.println("  --window=N         Most frames a node can have out to one destination at once (default 64)");
+		System.out.println("  --faults=F:R,...   How likely each testing fault is, from 0 to 1: drop (token, default 0.05),");
+		System.out.println("                     reject (default 0.2) and drain (forget to drain, default 0.02)");
+		System.out.println("  --seed=N           Seed for the testing faults, to repeat a run exactly");
+		System.out.println("  --fault-script=S   File of faults to always do, one per line: node drop|reject|drain chance_number");
+		System.out.println("  --monitor-crash=MS Crash the monitor MS milliseconds in (it keeps passing frames along), to test a");
+		System.out.println("                     standby monitor taking over");
+		System.out.println("  --simulate         Run the ring in simulated time on one thread, with simulated links and an offline");
+		System.out.println("                     bridge");
+		System.out.println("  --sim-limit=MS     Stop a simulation after MS milliseconds of simulated time, 0 for never (default 60000)");
+		System.out.println("  --latency=N        Simulated link latency in microseconds (default 5)");
+		System.out.println("  --bandwidth=N      Simulated link speed in megabits per second (default 16)");
+		System.out.println("  --metrics-port=N   Serve every node's metrics at http://127.0.0.1:N/metrics");
+		System.out.println("  --metrics-dump=MS  Print every node's metrics every MS milliseconds");
+	}
+	
+	/**
+	 * Pulls any <i>--name=value</i> options out of the arguments and applies them.
+	 * @param args
+	 * @return The arguments that weren't options, in order. Null if an option was bad.
+	 */
+	private static List<String> parseOptions(String[] args) {
+		List<String> positional = new LinkedList<String>();
 		
-		Scanner input = null;
-		try {
-			input = new Scanner(fileIn);
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				positional.add(arg);
+				continue;
+			}
+			
+			String name = arg.substring(2), value = "";
+			int split = name.indexOf('=');
+			if (split != -1) {
+				value = name.substring(split + 1);
+				name = name.substring(0, split);
+			}
+			
+			try {
+				if (!setOption(name, value)) {
+					System.out.println("Unknown option: " + arg);
+					return null;
+				}
+			} catch (IllegalArgumentException e) {
+				System.out.println("Invalid value for option: " + arg);
+				return null;
+			}
 		}
 		
-		if (input == null) {
-			System.out.println("Serious error! Unable to open scanner over input!");
+		return positional;
+	}
+	
+	private static boolean setOption(String name, String value) {
+		switch (name) {
+		case "event-loops":
+			eventLoops = value.isEmpty() ? 1 : Integer.parseInt(value);
+			return true;
+		case "transport":
+			if (value.equals("tcp")) {
+				transport = new TcpTransport();
+			} else if (value.equals("memory")) {
+				transport = new MemoryTransport();
+			} else {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "flush":
+			if (value.equals("frame")) {
+				outputWriter.setFlushInterval(OutputWriter.FLUSH_FRAME);
+			} else if (value.equals("shutdown")) {
+				outputWriter.setFlushInterval(OutputWriter.FLUSH_SHUTDOWN);
+			} else if (Integer.parseInt(value) > 0) {
+				outputWriter.setFlushInterval(Integer.parseInt(value));
+			} else {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "fsync":
+			if (value.equals("on")) {
+				outputWriter.setSync(true);
+			} else if (value.equals("off")) {
+				outputWriter.setSync(false);
+			} else {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "output":
+			if (value.equals("text")) {
+				binaryOutput = false;
+			} else if (value.equals("binary")) {
+				binaryOutput = true;
+			} else {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "token-release":
+			if (value.equals("early")) {
+				earlyTokenRelease = true;
+			} else if (value.equals("normal")) {
+				earlyTokenRelease = false;
+			} else {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "holding":
+			HoldingPolicy.create(value, THT); //throws if it's not a real one
+			holdingPolicy = value;
+			return true;
+		case "window":
+			windowSize = Integer.parseInt(value);
+			if (windowSize < 1 || windowSize > 0x4000) {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "faults":
+			for (String entry : value.split(",")) {
+				int split = entry.indexOf(':');
+				int fault = split == -1 ? -1 : FaultInjector.fault(entry.substring(0, split));
+				double rate = split == -1 ? -1 : Double.parseDouble(entry.substring(split + 1));
+				if (fault == -1 || rate < 0 || rate > 1) {
+					throw new IllegalArgumentException();
+				}
+				faultRates[fault] = rate;
+			}
+			return true;
+		case "seed":
+			faultSeed = Long.parseLong(value);
+			return true;
+		case "fault-script":
+			if (!new File(value).exists()) {
+				throw new IllegalArgumentException();
+			}
+			faultScript = new File(value);
+			return true;
+		case "monitor-crash":
+			monitorCrash = Long.parseLong(value);
+			if (monitorCrash < 1) {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "simulate":
+			if (value.isEmpty() || value.equals("on")) {
+				simulate = true;
+			} else if (value.equals("off")) {
+				simulate = false;
+			} else {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "sim-limit":
+			simulateLimit = Long.parseLong(value);
+			if (simulateLimit < 0) {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "latency":
+			linkLatency = Long.parseLong(value);
+			if (linkLatency < 0) {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "bandwidth":
+			linkBandwidth = Long.parseLong(value);
+			if (linkBandwidth < 1) {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "metrics-port":
+			metricsPort = Integer.parseInt(value);
+			if (metricsPort < 1 || metricsPort > 65535) {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "metrics-dump":
+			metricsDump = Long.parseLong(value);
+			if (metricsDump < 1) {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		case "batching":
+			if (value.isEmpty() || value.equals("on")) {
+				batching = true;
+			} else if (value.equals("off")) {
+				batching = false;
+			} else {
+				throw new IllegalArgumentException();
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * Hooks the node up to its input file. The file isn't read all at once; the node streams it in as it
+	 * sends.
+	 * @param node
+	 * @param fileIn
+	 */
+	private static void parseInput(Node node, File fileIn) {
+		if (!fileIn.exists()) {
+			System.out.println("Unable to get input file: " + fileIn.getPath());
 			return;
 		}
 		
-		while (input.hasNextLine()) {
-			node.addMessage(input.nextLine());
+		if (!node.setInput(fileIn)) {
+			System.out.println("Serious error! Unable to open input file: " + fileIn.getPath());
 		}
 	}
-
 }
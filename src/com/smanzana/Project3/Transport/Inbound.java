@@ -0,0 +1,42 @@
+package com.smanzana.Project3.Transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+
+/**
+ * The receiving end of a link between two nodes. Reads never block; {@link #await(long)} is how a caller waits.
+ * @author Skyler
+ */
+public interface Inbound {
+
+	/**
+	 * Copies whatever bytes are ready into <i>dst</i> without waiting.
+	 * @param dst
+	 * @return How many bytes were read (possibly 0), or -1 if the other end has closed the link
+	 * @throws IOException
+	 */
+	public int read(ByteBuffer dst) throws IOException;
+
+	/**
+	 * Waits until there might be bytes to read. This can wake up early, so callers should check with
+	 * {@link #read(ByteBuffer)} and wait again if they need to.
+	 * @param timeout How long to wait, in milliseconds. Like {@link Selector#select(long)}, 0 waits forever
+	 * @throws IOException
+	 */
+	public void await(long timeout) throws IOException;
+
+	/**
+	 * Lets a selector know about this link so a single thread can wait on lots of links at once.
+	 * @param selector
+	 * @param attachment Attached to the selection key, if one gets made
+	 * @return true if the link got registered with the selector. false if this link isn't selectable; it will
+	 * still {@link Selector#wakeup() wake up} the selector when bytes arrive, but the caller has to check it
+	 * by hand.
+	 * @throws IOException
+	 */
+	public boolean register(Selector selector, Object attachment) throws IOException;
+
+	public void close() throws IOException;
+
+}
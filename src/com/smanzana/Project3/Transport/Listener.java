@@ -0,0 +1,29 @@
+package com.smanzana.Project3.Transport;
+
+import java.io.IOException;
+
+/**
+ * A node's spot on the ring, claimed ahead of time so the upstream neighbor can connect to it whenever it's ready.
+ * <br />
+ * Binding and accepting are split up so every node in a ring can claim its address first, and then they can all
+ * connect at once, in whatever order they happen to get there.
+ * @author Skyler
+ */
+public interface Listener {
+
+	/**
+	 * Waits for the upstream neighbor to connect and returns the side we read from. A neighbor that connected
+	 * before this was called is picked up right away.
+	 * @param timeout Longest to wait, in milliseconds. 0 waits forever
+	 * @return
+	 * @throws IOException if nobody connects in time, or the listener is broken
+	 */
+	public Inbound accept(long timeout) throws IOException;
+
+	/**
+	 * Gives up the address. Links that were already accepted aren't affected.
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+
+}
@@ -0,0 +1,178 @@
+package com.smanzana.Project3.Transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded single-producer/single-consumer byte ring buffer between two neighboring nodes.<br />
+ * Exactly one thread writes (the upstream node) and exactly one thread reads (the downstream node), so the only
+ * thing that needs to be shared is how far each side has gotten. Those two counters are volatile and only ever
+ * written by their owner, so there's no locking anywhere.
+ * <p>When one side has to wait (the reader because the pipe is empty, the writer because it's full) it parks,
+ * and the other side unparks it after it makes progress.</p>
+ * @author Skyler
+ */
+public class MemoryPipe {
+
+	private final byte[] buffer;
+	private final int mask;
+
+	/**
+	 * Total bytes ever read. Only the reader writes this
+	 */
+	private volatile long head;
+
+	/**
+	 * Total bytes ever written. Only the writer writes this
+	 */
+	private volatile long tail;
+
+	private volatile Thread waitingReader, waitingWriter;
+	private volatile Selector selector;
+	private volatile boolean readerClosed, writerClosed;
+
+	private final Inbound inbound;
+	private final Outbound outbound;
+
+	/**
+	 * @param capacity How many bytes fit in the pipe. Rounded up to the next power of two
+	 */
+	public MemoryPipe(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		buffer = new byte[size];
+		mask = size - 1;
+		head = 0;
+		tail = 0;
+		inbound = new PipeInbound();
+		outbound = new PipeOutbound();
+	}
+
+	public Inbound inbound() {
+		return inbound;
+	}
+
+	public Outbound outbound() {
+		return outbound;
+	}
+
+	private class PipeInbound implements Inbound {
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			long h = head;
+			int count = (int) Math.min(tail - h, dst.remaining());
+			if (count == 0) {
+				return (writerClosed && tail == h) ? -1 : 0;
+			}
+
+			//copy out in (at most) two pieces, in case we wrap around the end of the array
+			int start = (int) (h & mask);
+			int first = Math.min(count, buffer.length - start);
+			dst.put(buffer, start, first);
+			if (first < count) {
+				dst.put(buffer, 0, count - first);
+			}
+			head = h + count;
+
+			Thread writer = waitingWriter;
+			if (writer != null) {
+				LockSupport.unpark(writer);
+			}
+			return count;
+		}
+
+		@Override
+		public void await(long timeout) throws IOException {
+			waitingReader = Thread.currentThread();
+			//check again after saying we're waiting, or we might miss the writer's unpark
+			if (tail == head && !writerClosed) {
+				if (timeout == 0) {
+					LockSupport.park(this);
+				} else {
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(timeout));
+				}
+			}
+			waitingReader = null;
+		}
+
+		@Override
+		public boolean register(Selector selector, Object attachment) throws IOException {
+			MemoryPipe.this.selector = selector;
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			readerClosed = true;
+			Thread writer = waitingWriter;
+			if (writer != null) {
+				LockSupport.unpark(writer);
+			}
+		}
+
+	}
+
+	private class PipeOutbound implements Outbound {
+
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (readerClosed) {
+					throw new IOException("Pipe was closed by the reader");
+				}
+
+				long t = tail;
+				int free = buffer.length - (int) (t - head);
+				if (free == 0) {
+					//full. Wait for the reader to take some
+					waitingWriter = Thread.currentThread();
+					if (buffer.length - (int) (t - head) == 0 && !readerClosed) {
+						LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+					}
+					waitingWriter = null;
+					continue;
+				}
+
+				int count = Math.min(free, length);
+				int start = (int) (t & mask);
+				int first = Math.min(count, buffer.length - start);
+				System.arraycopy(data, offset, buffer, start, first);
+				if (first < count) {
+					System.arraycopy(data, offset + first, buffer, 0, count - first);
+				}
+				tail = t + count;
+				offset += count;
+				length -= count;
+
+				wakeReader();
+			}
+		}
+
+		@Override
+		public boolean isClosed() {
+			return writerClosed;
+		}
+
+		@Override
+		public void close() throws IOException {
+			writerClosed = true;
+			wakeReader();
+		}
+
+	}
+
+	private void wakeReader() {
+		Thread reader = waitingReader;
+		if (reader != null) {
+			LockSupport.unpark(reader);
+		}
+		Selector s = selector;
+		if (s != null) {
+			s.wakeup();
+		}
+	}
+
+}
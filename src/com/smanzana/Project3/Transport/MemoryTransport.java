@@ -0,0 +1,58 @@
+package com.smanzana.Project3.Transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Links nodes that live in the same JVM without any sockets at all.<br />
+ * Each link is a {@link MemoryPipe} looked up by port number. Whichever of the two neighbors shows up first
+ * makes the pipe, and the other one finds it. Nobody has to wait for anybody, so there's no connection order
+ * to get right either.
+ * @author Skyler
+ */
+public class MemoryTransport implements Transport {
+
+	/**
+	 * How many bytes each link can hold before the sender has to wait on the receiver
+	 */
+	public static final int PIPE_CAPACITY = 1 << 16;
+
+	private ConcurrentMap<Integer, MemoryPipe> pipes;
+
+	public MemoryTransport() {
+		pipes = new ConcurrentHashMap<Integer, MemoryPipe>();
+	}
+
+	@Override
+	public Listener bind(InetSocketAddress address) throws IOException {
+		final Inbound inbound = pipe(address.getPort()).inbound();
+		return new Listener() {
+			@Override
+			public Inbound accept(long timeout) {
+				return inbound;
+			}
+
+			@Override
+			public void close() {
+				;
+			}
+		};
+	}
+
+	@Override
+	public Outbound connect(InetSocketAddress address) throws IOException {
+		return pipe(address.getPort()).outbound();
+	}
+
+	private MemoryPipe pipe(int port) {
+		MemoryPipe pipe = pipes.get(port);
+		if (pipe == null) {
+			pipes.putIfAbsent(port, new MemoryPipe(PIPE_CAPACITY));
+			pipe = pipes.get(port);
+		}
+		return pipe;
+	}
+
+}
@@ -0,0 +1,17 @@
+package com.smanzana.Project3.Transport;
+
+import java.io.IOException;
+
+/**
+ * The sending end of a link between two nodes. Writes block until every byte has been handed off.
+ * @author Skyler
+ */
+public interface Outbound {
+
+	public void write(byte[] data, int offset, int length) throws IOException;
+
+	public boolean isClosed();
+
+	public void close() throws IOException;
+
+}
@@ -0,0 +1,305 @@
+package com.smanzana.Project3.Transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.smanzana.Project3.Utils.VirtualClock;
+
+/**
+ * Links for a ring being run by a {@link com.smanzana.Project3.Node.Simulation}. Nothing actually travels anywhere;
+ * bytes just become readable on the far end once enough simulated time has gone by.<br />
+ * Every link has the same latency and bandwidth. A write waits its turn behind whatever was written to the link
+ * before it, takes its length over the bandwidth to go out, and then shows up <i>latency</i> later. Whoever
+ * registered with the receiving end gets {@link Scheduler#schedule(Object, long) scheduled} for when it shows up.
+ * <p>Everything here is run from the one simulation thread, so none of it is thread safe and none of it ever
+ * blocks. Links never fill up, either.</p>
+ * @author Skyler
+ */
+public class SimulatedTransport implements Transport {
+
+	/**
+	 * Told when bytes are going to show up on a link, so whoever is on the other end can be woken up then
+	 */
+	public interface Scheduler {
+
+		/**
+		 * @param attachment Whatever was passed to {@link Inbound#register(Selector, Object)} on the receiving end
+		 * @param nanos When the bytes show up, in {@link VirtualClock#nanos()}
+		 */
+		public void schedule(Object attachment, long nanos);
+
+	}
+
+	private VirtualClock clock;
+
+	/**
+	 * How long bytes spend on the wire, in nanoseconds, and how fast they're put on it, in bits per second
+	 */
+	private long latency, bandwidth;
+
+	private Scheduler scheduler;
+	private Map<Integer, Link> links;
+
+	/**
+	 * Every write (that's one frame, almost always) and every byte sent over any link so far
+	 */
+	private long frames, bytes;
+
+	/**
+	 * @param clock The simulation's clock
+	 * @param latency How long it takes a byte to get across a link once it's sent, in nanoseconds
+	 * @param bandwidth How fast bytes are sent, in bits per second
+	 */
+	public SimulatedTransport(VirtualClock clock, long latency, long bandwidth) {
+		this.clock = clock;
+		this.latency = latency;
+		this.bandwidth = bandwidth;
+		this.scheduler = null;
+		links = new HashMap<Integer, Link>();
+		frames = 0;
+		bytes = 0;
+	}
+
+	public VirtualClock getClock() {
+		return clock;
+	}
+
+	public void setScheduler(Scheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public Listener bind(InetSocketAddress address) throws IOException {
+		final Inbound inbound = link(address.getPort()).inbound;
+		return new Listener() {
+			@Override
+			public Inbound accept(long timeout) {
+				return inbound;
+			}
+
+			@Override
+			public void close() {
+				;
+			}
+		};
+	}
+
+	@Override
+	public Outbound connect(InetSocketAddress address) throws IOException {
+		return link(address.getPort()).outbound;
+	}
+
+	private Link link(int port) {
+		Link link = links.get(port);
+		if (link == null) {
+			link = new Link();
+			links.put(port, link);
+		}
+		return link;
+	}
+
+	/**
+	 * One link. Bytes sit in <i>data</i> from when they're written until they're read, and each write remembers when
+	 * it shows up and where it ends, in the order they were made.
+	 */
+	private class Link {
+
+		private byte[] data;
+
+		/**
+		 * Total bytes ever written, ever read, and ever readable (the ones that have shown up)
+		 */
+		private long written, read, arrived;
+
+		/**
+		 * When each write that hasn't shown up yet shows up, and the value of <i>written</i> right after it
+		 */
+		private long[] arrivals, ends;
+		private int first, pending;
+
+		/**
+		 * When the link is done sending everything it's been given so far
+		 */
+		private long free;
+
+		private Object attachment;
+		private boolean readerClosed, writerClosed;
+
+		private final Inbound inbound;
+		private final Outbound outbound;
+
+		private Link() {
+			data = new byte[4096];
+			arrivals = new long[64];
+			ends = new long[64];
+			written = read = arrived = 0;
+			first = pending = 0;
+			free = 0;
+			attachment = null;
+			readerClosed = writerClosed = false;
+			inbound = new LinkInbound();
+			outbound = new LinkOutbound();
+		}
+
+		private void write(byte[] src, int offset, int length) throws IOException {
+			if (readerClosed || length == 0) {
+				return; //nobody's listening anymore, so it just goes nowhere. That's the monitor passing on the last kill
+			}
+
+			if (written - read + length > data.length) {
+				grow(written - read + length);
+			}
+			int mask = data.length - 1;
+			int start = (int) (written & mask), firstPart = Math.min(length, data.length - start);
+			System.arraycopy(src, offset, data, start, firstPart);
+			System.arraycopy(src, offset + firstPart, data, 0, length - firstPart);
+			written += length;
+
+			free = Math.max(clock.nanos(), free) + length * 8000000000L / bandwidth;
+			if (pending == arrivals.length) {
+				arrivals = unroll(arrivals);
+				ends = unroll(ends);
+				first = 0;
+			}
+			int slot = (first + pending) & (arrivals.length - 1);
+			arrivals[slot] = free + latency;
+			ends[slot] = written;
+			pending++;
+
+			frames++;
+			bytes += length;
+			if (scheduler != null && attachment != null) {
+				scheduler.schedule(attachment, free + latency);
+			}
+		}
+
+		/**
+		 * Makes room for at least <i>size</i> unread bytes, keeping the ones we have in order
+		 */
+		private void grow(long size) {
+			int capacity = data.length;
+			while (capacity < size) {
+				capacity *= 2;
+			}
+			byte[] bigger = new byte[capacity];
+			for (long i = read; i < written; i++) {
+				bigger[(int) (i & (capacity - 1))] = data[(int) (i & (data.length - 1))];
+			}
+			data = bigger;
+		}
+
+		/**
+		 * @return The pending writes in <i>times</i>, starting at index 0, in an array twice the size
+		 */
+		private long[] unroll(long[] times) {
+			long[] bigger = new long[times.length * 2];
+			for (int i = 0; i < pending; i++) {
+				bigger[i] = times[(first + i) & (times.length - 1)];
+			}
+			return bigger;
+		}
+
+		private int read(ByteBuffer dst) throws IOException {
+			long now = clock.nanos();
+			while (pending > 0 && arrivals[first] <= now) {
+				arrived = ends[first];
+				first = (first + 1) & (arrivals.length - 1);
+				pending--;
+			}
+
+			int count = (int) Math.min(arrived - read, dst.remaining());
+			if (count == 0) {
+				return writerClosed && read == written ? -1 : 0;
+			}
+
+			int mask = data.length - 1;
+			int start = (int) (read & mask), firstPart = Math.min(count, data.length - start);
+			dst.put(data, start, firstPart);
+			dst.put(data, 0, count - firstPart);
+			read += count;
+			return count;
+		}
+
+		/**
+		 * Nobody else can run while we wait, so this just moves the clock up to when the next write shows up (or
+		 * the timeout, if that's sooner).
+		 * @throws IOException if nothing is on its way and there's no timeout, since that would be waiting forever
+		 */
+		private void await(long timeout) throws IOException {
+			if (pending == 0) {
+				if (timeout <= 0) {
+					throw new IOException("Waited forever on a simulated link with nothing on it");
+				}
+				clock.advanceTo(clock.nanos() + timeout * 1000000);
+				return;
+			}
+			long next = arrivals[first];
+			if (timeout > 0) {
+				next = Math.min(next, clock.nanos() + timeout * 1000000);
+			}
+			clock.advanceTo(next);
+		}
+
+		private class LinkInbound implements Inbound {
+
+			@Override
+			public int read(ByteBuffer dst) throws IOException {
+				return Link.this.read(dst);
+			}
+
+			@Override
+			public void await(long timeout) throws IOException {
+				Link.this.await(timeout);
+			}
+
+			/**
+			 * There's no selector to register with. The attachment is what gets passed to the {@link Scheduler}.
+			 * @return false always
+			 */
+			@Override
+			public boolean register(Selector selector, Object attachment) throws IOException {
+				Link.this.attachment = attachment;
+				return false;
+			}
+
+			@Override
+			public void close() throws IOException {
+				readerClosed = true;
+			}
+
+		}
+
+		private class LinkOutbound implements Outbound {
+
+			@Override
+			public void write(byte[] data, int offset, int length) throws IOException {
+				Link.this.write(data, offset, length);
+			}
+
+			@Override
+			public boolean isClosed() {
+				return writerClosed;
+			}
+
+			@Override
+			public void close() throws IOException {
+				writerClosed = true;
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.smanzana.Project3.Transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Links nodes together with loopback TCP sockets. This is how rings have always been hooked up, and it's the
+ * only option when the nodes (or the remote bridge) live in a different process.<br />
+ * Listening sockets are opened with SO_REUSEADDR, so a ring can start up again on the same ports right after the
+ * last one was shut down, without waiting for the old connections to time out.
+ * @author Skyler
+ */
+public class TcpTransport implements Transport {
+
+	@Override
+	public Listener bind(InetSocketAddress address) throws IOException {
+		ServerSocketChannel sSock = ServerSocketChannel.open();
+		try {
+			sSock.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			sSock.bind(address);
+		} catch (IOException e) {
+			sSock.close();
+			throw e;
+		}
+		return new TcpListener(sSock);
+	}
+
+	@Override
+	public Outbound connect(InetSocketAddress address) throws IOException {
+		return new TcpOutbound(SocketChannel.open(address));
+	}
+
+	/**
+	 * Wraps an already connected channel so it can be read like any other link.
+	 * @param channel
+	 * @return
+	 * @throws IOException
+	 */
+	public static Inbound wrap(SocketChannel channel) throws IOException {
+		return new TcpInbound(channel);
+	}
+
+	private static class TcpListener implements Listener {
+
+		private ServerSocketChannel channel;
+
+		public TcpListener(ServerSocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public Inbound accept(long timeout) throws IOException {
+			//the channel's own accept can't time out, but its socket's can
+			channel.socket().setSoTimeout((int) Math.min(timeout, Integer.MAX_VALUE));
+			Socket sock = channel.socket().accept();
+			return wrap(sock.getChannel());
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+	}
+
+	private static class TcpInbound implements Inbound {
+
+		private SocketChannel channel;
+
+		/**
+		 * Private selector just for waiting on this one channel
+		 */
+		private Selector selector;
+
+		public TcpInbound(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			channel.configureBlocking(false);
+			selector = Selector.open();
+			channel.register(selector, SelectionKey.OP_READ);
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			return channel.read(dst);
+		}
+
+		@Override
+		public void await(long timeout) throws IOException {
+			//sleep until the socket has something for us. This returns right away when data shows up
+			selector.select(timeout);
+			selector.selectedKeys().clear();
+		}
+
+		@Override
+		public boolean register(Selector other, Object attachment) throws IOException {
+			channel.register(other, SelectionKey.OP_READ, attachment);
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			selector.close();
+			channel.close();
+		}
+
+	}
+
+	private static class TcpOutbound implements Outbound {
+
+		private SocketChannel channel;
+
+		/**
+		 * Reused wrapper around whatever array we were last asked to write, so writes don't make garbage
+		 */
+		private ByteBuffer wrapper;
+
+		public TcpOutbound(SocketChannel channel) {
+			this.channel = channel;
+			this.wrapper = null;
+		}
+
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			if (wrapper == null || wrapper.array() != data) {
+				wrapper = ByteBuffer.wrap(data);
+			}
+			wrapper.limit(offset + length);
+			wrapper.position(offset);
+			while (wrapper.hasRemaining()) {
+				channel.write(wrapper);
+			}
+		}
+
+		@Override
+		public boolean isClosed() {
+			return !channel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+	}
+
+}
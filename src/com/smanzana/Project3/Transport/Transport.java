@@ -0,0 +1,37 @@
+package com.smanzana.Project3.Transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * How nodes get hooked up to their neighbors.<br />
+ * Every node binds its own address for the node upstream of it, and connects to the address of the node
+ * downstream of it. Binding never waits on anybody, so a whole ring can be bound before anyone connects (see
+ * {@link com.smanzana.Project3.Node.Bootstrap}). What's actually carrying the bytes in between is up to the implementation:
+ * <ul>
+ * <li>{@link TcpTransport} uses real loopback sockets, and works across processes</li>
+ * <li>{@link MemoryTransport} hands bytes straight to the neighbor through a shared buffer, but only works when
+ * both nodes live in the same JVM</li>
+ * </ul>
+ * @author Skyler
+ */
+public interface Transport {
+
+	/**
+	 * Claims the passed address for the upstream neighbor to connect to. This comes back right away; the
+	 * connection itself is picked up with {@link Listener#accept(long)}.
+	 * @param address
+	 * @return
+	 * @throws IOException if the address can't be had
+	 */
+	public Listener bind(InetSocketAddress address) throws IOException;
+
+	/**
+	 * Connects to the downstream neighbor bound to the passed address and returns the side we write to.
+	 * @param address
+	 * @return
+	 * @throws IOException if nobody is bound there (yet)
+	 */
+	public Outbound connect(InetSocketAddress address) throws IOException;
+
+}
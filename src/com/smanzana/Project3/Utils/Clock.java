@@ -0,0 +1,38 @@
+package com.smanzana.Project3.Utils;
+
+/**
+ * Where nodes get the time from for their timeouts (the monitor's lost token check, holding the token for frames
+ * to come back, waiting on a link).<br />
+ * Normally this is just the wall clock. A {@link com.smanzana.Project3.Node.Simulation} swaps in a
+ * {@link VirtualClock} instead, so the same timeouts happen in simulated time.
+ * @author Skyler
+ */
+public abstract class Clock {
+
+	/**
+	 * The real time, from {@link System#currentTimeMillis()}
+	 */
+	public static final Clock SYSTEM = new Clock() {
+		@Override
+		public long millis() {
+			return System.currentTimeMillis();
+		}
+
+		@Override
+		public long nanos() {
+			return System.nanoTime();
+		}
+	};
+
+	/**
+	 * @return The current time, in milliseconds
+	 */
+	public abstract long millis();
+
+	/**
+	 * @return The time in nanoseconds, for measuring how long something took. Only differences between two of
+	 * these mean anything
+	 */
+	public abstract long nanos();
+
+}
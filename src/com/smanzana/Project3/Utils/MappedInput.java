@@ -0,0 +1,132 @@
+package com.smanzana.Project3.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads an input file one line at a time straight out of a memory mapping, instead of loading the whole thing
+ * up front.<br />
+ * Only a window of the file is mapped at a time. When a line runs off the end of the window, the next window is
+ * mapped starting at that line. So no matter how big the file is, we only ever hold on to one window and the line
+ * being handed out.
+ * <p>Lines end with a '\n', and a '\r' right before it is dropped too. The last line doesn't need a newline.</p>
+ * @author Skyler
+ */
+public class MappedInput {
+
+	/**
+	 * How much of the file is mapped at once, in bytes
+	 */
+	public static final int WINDOW_SIZE = 1 << 24;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private long length;
+
+	private MappedByteBuffer window;
+	private long windowStart;
+
+	private long linesRead;
+
+	/**
+	 * Opens and maps the start of the passed file.
+	 * @param input
+	 * @throws IOException
+	 */
+	public MappedInput(File input) throws IOException {
+		file = new RandomAccessFile(input, "r");
+		channel = file.getChannel();
+		length = channel.size();
+		linesRead = 0;
+		map(0);
+	}
+
+	/**
+	 * Reads the next line of the file.
+	 * @return The bytes of the line, without the line ending, or null once the whole file has been read
+	 * @throws IOException
+	 */
+	public byte[] nextLine() throws IOException {
+		if (channel == null) {
+			return null;
+		}
+
+		while (true) {
+			int start = window.position();
+			if (windowStart + start >= length) {
+				return null;
+			}
+
+			int end = start;
+			while (end < window.limit() && window.get(end) != '\n') {
+				end++;
+			}
+
+			boolean lastInFile = windowStart + end >= length;
+			if (end == window.limit() && !lastInFile) {
+				//line runs off the end of the window. Map the next one starting right at this line
+				if (start == 0) {
+					throw new IOException("Line longer than " + WINDOW_SIZE + " bytes in input file!");
+				}
+				map(windowStart + start);
+				continue;
+			}
+
+			window.position(end == window.limit() ? end : end + 1); //skip the newline
+
+			if (end > start && window.get(end - 1) == '\r') {
+				end--;
+			}
+
+			linesRead++;
+			byte[] line = new byte[end - start];
+			for (int i = 0; i < line.length; i++) {
+				line[i] = window.get(start + i);
+			}
+			return line;
+		}
+	}
+
+	/**
+	 * Guesses how many lines are left, going by how long the lines read so far have been. Nothing is read to
+	 * figure this out.
+	 * @return
+	 */
+	public long estimateRemaining() {
+		if (channel == null) {
+			return 0;
+		}
+
+		long read = windowStart + window.position(), left = length - read;
+		if (left <= 0) {
+			return 0;
+		}
+		if (linesRead == 0) {
+			return 1;
+		}
+		return Math.max(1, (left * linesRead) / read);
+	}
+
+	/**
+	 * Lets go of the file. The last mapped window goes away once the GC gets to it.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (channel == null) {
+			return;
+		}
+		channel.close();
+		file.close();
+		channel = null;
+		window = null;
+	}
+
+	private void map(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, length - start));
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.smanzana.Project3.Utils;
+
+/**
+ * The layout of what nodes write out for the frames they accept, in both the text and binary forms.<br />
+ * The text form is the usual <i>&lt;source&gt;,&lt;destination&gt;,&lt;size&gt;,&lt;data&gt;</i> line.
+ * <p>The binary form is a log of length-prefixed records, one per frame:
+ * <ul><li>2 bytes - how many bytes follow in this record</li>
+ * <li>1 byte - source address</li>
+ * <li>1 byte - destination address</li>
+ * <li>1 byte - flags. {@link #FLAG_SEQUENCED} is set if the frame had a sequence number</li>
+ * <li>2 bytes - the sequence number, or 0</li>
+ * <li>the data, without the sequence number</li></ul>
+ * Next to it sits an index file with a fixed size entry for every record, in the same order:
+ * <ul><li>1 byte - source address</li>
+ * <li>1 byte - flags</li>
+ * <li>2 bytes - sequence number</li>
+ * <li>8 bytes - where the record starts in the log</li></ul>
+ * So finding everything one node sent only means reading the (small) index and then jumping straight to its
+ * records. All numbers are big-endian.</p>
+ * @author Skyler
+ * @see OutputLogReader
+ */
+public final class OutputLog {
+
+	public static final int RECORD_HEADER = 7, INDEX_ENTRY = 12;
+
+	public static final byte FLAG_SEQUENCED = 1;
+
+	/**
+	 * What's tacked on to the end of the binary log's name to get the index's name
+	 */
+	public static final String INDEX_SUFFIX = ".idx";
+
+	private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes();
+
+	/**
+	 * Builds a text line, line separator and all, straight as bytes.
+	 * @param source
+	 * @param destination
+	 * @param data Array the data is in
+	 * @param offset Where the data starts in it
+	 * @param length How long the data is
+	 * @return
+	 */
+	public static byte[] textLine(byte source, byte destination, byte[] data, int offset, int length) {
+		byte[] src = Integer.toString(source).getBytes(), dst = Integer.toString(destination).getBytes(),
+				size = Integer.toString(length).getBytes();
+		byte[] line = new byte[src.length + dst.length + size.length + 3 + length + LINE_SEPARATOR.length];
+
+		int pos = 0;
+		System.arraycopy(src, 0, line, pos, src.length);
+		pos += src.length;
+		line[pos++] = ',';
+		System.arraycopy(dst, 0, line, pos, dst.length);
+		pos += dst.length;
+		line[pos++] = ',';
+		System.arraycopy(size, 0, line, pos, size.length);
+		pos += size.length;
+		line[pos++] = ',';
+		System.arraycopy(data, offset, line, pos, length);
+		pos += length;
+		System.arraycopy(LINE_SEPARATOR, 0, line, pos, LINE_SEPARATOR.length);
+
+		return line;
+	}
+
+	/**
+	 * Builds a binary log record.
+	 * @param source
+	 * @param destination
+	 * @param flags
+	 * @param sequence
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public static byte[] logRecord(byte source, byte destination, byte flags, int sequence, byte[] data, int offset,
+			int length) {
+		byte[] record = new byte[RECORD_HEADER + length];
+		int size = record.length - 2;
+		record[0] = (byte) (size >> 8);
+		record[1] = (byte) size;
+		record[2] = source;
+		record[3] = destination;
+		record[4] = flags;
+		record[5] = (byte) (sequence >> 8);
+		record[6] = (byte) sequence;
+		System.arraycopy(data, offset, record, RECORD_HEADER, length);
+		return record;
+	}
+
+	/**
+	 * Builds an index entry for a record.
+	 * @param source
+	 * @param flags
+	 * @param sequence
+	 * @param position Where the record starts in the log
+	 * @return
+	 */
+	public static byte[] indexEntry(byte source, byte flags, int sequence, long position) {
+		byte[] entry = new byte[INDEX_ENTRY];
+		entry[0] = source;
+		entry[1] = flags;
+		entry[2] = (byte) (sequence >> 8);
+		entry[3] = (byte) sequence;
+		for (int i = 0; i < 8; i++) {
+			entry[4 + i] = (byte) (position >> (56 - (8 * i)));
+		}
+		return entry;
+	}
+
+}
@@ -0,0 +1,143 @@
+package com.smanzana.Project3.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Turns a binary output log (see {@link OutputLog}) back into the usual text lines.<br />
+ * It can dump the whole log, or use the index to pick out just what one node sent (or even just one frame) without
+ * reading the rest of the log.
+ * <p>Run it on its own with:<br />
+ * <code>java -cp jar_name.jar com.smanzana.Project3.Utils.OutputLogReader log_file [source [sequence]]</code></p>
+ * @author Skyler
+ */
+public class OutputLogReader {
+
+	private File log, index;
+
+	/**
+	 * @param log The binary log. Its index is expected to be right next to it
+	 */
+	public OutputLogReader(File log) {
+		this.log = log;
+		this.index = new File(log.getPath() + OutputLog.INDEX_SUFFIX);
+	}
+
+	/**
+	 * Writes every record in the log out as text, in the order they were delivered.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void readAll(OutputStream out) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+		try {
+			byte[] record = new byte[1 << 16];
+			while (true) {
+				int size;
+				try {
+					size = in.readUnsignedShort();
+				} catch (EOFException e) {
+					return;
+				}
+				in.readFully(record, 0, size);
+				//record[] is missing the 2 length bytes, so everything is 2 earlier than in OutputLog
+				out.write(OutputLog.textLine(record[0], record[1], record, OutputLog.RECORD_HEADER - 2,
+						size - (OutputLog.RECORD_HEADER - 2)));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes out every record from <i>source</i> as text. Only the index is read in full; the log is only read
+	 * where those records are.
+	 * @param out
+	 * @param source
+	 * @throws IOException
+	 */
+	public void readFrom(OutputStream out, byte source) throws IOException {
+		read(out, source, -1);
+	}
+
+	/**
+	 * Writes out the record with the passed source and sequence number as text, if it's there. Every copy is
+	 * written if it was delivered more than once.
+	 * @param out
+	 * @param source
+	 * @param sequence
+	 * @throws IOException
+	 */
+	public void readFrom(OutputStream out, byte source, int sequence) throws IOException {
+		read(out, source, sequence);
+	}
+
+	private void read(OutputStream out, byte source, int sequence) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+		RandomAccessFile records = new RandomAccessFile(log, "r");
+		try {
+			byte[] record = new byte[1 << 16];
+			while (true) {
+				byte src, flags;
+				int seq;
+				long position;
+				try {
+					src = in.readByte();
+				} catch (EOFException e) {
+					return;
+				}
+				flags = in.readByte();
+				seq = in.readUnsignedShort();
+				position = in.readLong();
+
+				if (src != source) {
+					continue;
+				}
+				if (sequence != -1 && ((flags & OutputLog.FLAG_SEQUENCED) == 0 || seq != sequence)) {
+					continue;
+				}
+
+				records.seek(position);
+				int size = records.readUnsignedShort();
+				records.readFully(record, 0, size);
+				out.write(OutputLog.textLine(record[0], record[1], record, OutputLog.RECORD_HEADER - 2,
+						size - (OutputLog.RECORD_HEADER - 2)));
+			}
+		} finally {
+			in.close();
+			records.close();
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 3) {
+			System.out.println("Usage: java -cp jar_name.jar com.smanzana.Project3.Utils.OutputLogReader log_file "
+					+ "[source [sequence]]");
+			return;
+		}
+
+		OutputLogReader reader = new OutputLogReader(new File(args[0]));
+		OutputStream out = new BufferedOutputStream(System.out);
+		try {
+			if (args.length == 1) {
+				reader.readAll(out);
+			} else if (args.length == 2) {
+				reader.readFrom(out, (byte) Integer.parseInt(args[1]));
+			} else {
+				reader.readFrom(out, (byte) Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+			}
+			out.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Error when reading output log " + args[0] + "!");
+		}
+	}
+
+}
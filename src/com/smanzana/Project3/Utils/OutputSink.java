@@ -0,0 +1,136 @@
+package com.smanzana.Project3.Utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One output file, written in the background by an {@link OutputWriter}.<br />
+ * {@link #write(byte[])} never blocks on the disk; the record is just queued up. The writer packs records into a
+ * buffer here and only writes the buffer out when it fills up or the writer decides it's time to flush.
+ * @author Skyler
+ */
+public class OutputSink {
+
+	/**
+	 * How many bytes of records are packed together before they have to be written out
+	 */
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	private File file;
+	private OutputWriter writer;
+
+	/**
+	 * Only touched by the writer thread
+	 */
+	private FileOutputStream stream;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+
+	private boolean open;
+
+	/**
+	 * Creates (or empties) the file. Nothing is written until records come in.
+	 * @param file
+	 * @param writer The thread that does the writing
+	 * @throws IOException
+	 */
+	public OutputSink(File file, OutputWriter writer) throws IOException {
+		this.file = file;
+		this.writer = writer;
+		stream = new FileOutputStream(file);
+		channel = stream.getChannel();
+		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		open = true;
+	}
+
+	/**
+	 * Queues a record to be written. The array belongs to the writer after this, so don't change it.
+	 * @param record
+	 */
+	public void write(byte[] record) {
+		writer.submit(this, record);
+	}
+
+	/**
+	 * Writes out everything that's been queued for this file so far and closes it. Waits until that's done.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (!open) {
+				return;
+			}
+		}
+
+		writer.submit(this, null);
+
+		synchronized (this) {
+			while (open && writer.isRunning()) {
+				try {
+					wait(OutputWriter.IDLE_TIME);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+					return;
+				}
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return file.getPath();
+	}
+
+	synchronized boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Adds the record to the buffer, writing the buffer out first if it doesn't fit.
+	 */
+	void append(byte[] record) throws IOException {
+		if (record.length > buffer.remaining()) {
+			flush(false);
+			if (record.length > buffer.capacity()) {
+				channel.write(ByteBuffer.wrap(record));
+				return;
+			}
+		}
+		buffer.put(record);
+	}
+
+	/**
+	 * Writes out whatever is buffered.
+	 * @param sync Whether to also make sure it's on the disk
+	 */
+	void flush(boolean sync) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+		if (sync) {
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Flushes and closes the file, then lets anyone waiting in {@link #close()} go.
+	 */
+	void finish() throws IOException {
+		try {
+			if (channel.isOpen()) {
+				flush(writer.isSync());
+				stream.close();
+			}
+		} finally {
+			synchronized (this) {
+				open = false;
+				notifyAll();
+			}
+		}
+	}
+
+}
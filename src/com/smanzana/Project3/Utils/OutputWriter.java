@@ -0,0 +1,248 @@
+package com.smanzana.Project3.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single background thread that does all of the output file writing for every node in the process.<br />
+ * Nodes hand their records to an {@link OutputSink}, which just drops them on a lock-free queue and goes back to
+ * passing frames. This thread drains the queue, packs the records into each sink's buffer, and writes the buffers
+ * out in big chunks.
+ * <p>When the written bytes are pushed to the disk depends on the flush interval:
+ * <ul><li>{@link #FLUSH_FRAME} - after every record, like the old PrintWriter did</li>
+ * <li>Anything above 0 - every that many milliseconds</li>
+ * <li>{@link #FLUSH_SHUTDOWN} - only when a sink is closed (or a buffer fills up)</li></ul>
+ * A flush just hands the bytes to the OS, same as PrintWriter. Only if {@link #setSync(boolean) sync} is on does
+ * every flush (and closing the file) also wait for them to be on the disk, which is a lot slower.</p>
+ * <p>The thread is a daemon, but a shutdown hook makes sure everything still queued is written out before the JVM
+ * goes away.</p>
+ * @author Skyler
+ */
+public class OutputWriter {
+
+	public static final int FLUSH_FRAME = 0, FLUSH_SHUTDOWN = -1;
+
+	/**
+	 * Longest the thread sleeps when there's nothing going on, in milliseconds
+	 */
+	public static final int IDLE_TIME = 50;
+
+	/**
+	 * Something for the thread to do. A null <i>data</i> means close the sink
+	 */
+	private static class Record {
+		OutputSink sink;
+		byte[] data;
+
+		Record(OutputSink sink, byte[] data) {
+			this.sink = sink;
+			this.data = data;
+		}
+	}
+
+	private ConcurrentLinkedQueue<Record> queue;
+	private int flushInterval;
+	private boolean sync;
+
+	private Thread thread;
+	private volatile boolean parked, stopping;
+
+	/**
+	 * Every sink that hasn't been closed. Only touched by the writer thread
+	 */
+	private List<OutputSink> open;
+
+	/**
+	 * Sinks with bytes that haven't been flushed yet. Only touched by the writer thread
+	 */
+	private List<OutputSink> dirty;
+
+	/**
+	 * @param flushInterval See {@link #setFlushInterval(int)}
+	 */
+	public OutputWriter(int flushInterval) {
+		this.flushInterval = flushInterval;
+		this.sync = false;
+		queue = new ConcurrentLinkedQueue<Record>();
+		open = new ArrayList<OutputSink>();
+		dirty = new ArrayList<OutputSink>();
+		thread = null;
+		parked = false;
+		stopping = false;
+	}
+
+	/**
+	 * Sets how often written records are flushed. Has to be called before any sinks are opened.
+	 * @param flushInterval {@link #FLUSH_FRAME}, {@link #FLUSH_SHUTDOWN}, or a number of milliseconds
+	 */
+	public void setFlushInterval(int flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	public int getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * Sets whether flushes make sure the bytes are on the disk (an fsync), and not just handed to the OS. Has to
+	 * be called before any sinks are opened.
+	 * @param sync
+	 */
+	public void setSync(boolean sync) {
+		this.sync = sync;
+	}
+
+	public boolean isSync() {
+		return sync;
+	}
+
+	/**
+	 * Queues up bytes to be written to the sink. Never blocks.
+	 * @param sink
+	 * @param data
+	 */
+	void submit(OutputSink sink, byte[] data) {
+		start();
+		queue.offer(new Record(sink, data));
+		if (parked && (data == null || flushInterval == FLUSH_FRAME)) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * @return Whether the thread is up and will get to anything submitted
+	 */
+	synchronized boolean isRunning() {
+		return thread != null && thread.isAlive();
+	}
+
+	/**
+	 * Writes out everything that's been queued, closes every sink and stops the thread. Waits for it to finish.
+	 */
+	public void shutdown() {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			stopping = true;
+		}
+		if (t == null) {
+			return;
+		}
+		LockSupport.unpark(t);
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private synchronized void start() {
+		if (thread != null || stopping) {
+			return;
+		}
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		}, "OutputWriter");
+		thread.setDaemon(true);
+		thread.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				shutdown();
+			}
+		}));
+	}
+
+	private void loop() {
+		long nextFlush = System.currentTimeMillis() + flushInterval;
+
+		while (true) {
+			Record r;
+			while ((r = queue.poll()) != null) {
+				handle(r);
+			}
+
+			long now = System.currentTimeMillis();
+			if (flushInterval > 0 && now >= nextFlush) {
+				flushDirty();
+				nextFlush = now + flushInterval;
+			}
+
+			if (stopping && queue.isEmpty()) {
+				flushDirty();
+				for (OutputSink sink : open) {
+					closeSink(sink);
+				}
+				open.clear();
+				return;
+			}
+
+			long sleep = IDLE_TIME;
+			if (flushInterval > 0) {
+				sleep = Math.max(1, Math.min(sleep, nextFlush - now));
+			}
+			parked = true;
+			if (queue.isEmpty() && !stopping) {
+				LockSupport.parkNanos(sleep * 1000000L);
+			}
+			parked = false;
+		}
+	}
+
+	private void handle(Record r) {
+		OutputSink sink = r.sink;
+		if (r.data == null) {
+			dirty.remove(sink);
+			open.remove(sink);
+			closeSink(sink);
+			return;
+		}
+
+		if (!sink.isOpen()) {
+			return; //already closed; nothing we can do with it
+		}
+		if (!open.contains(sink)) {
+			open.add(sink);
+		}
+
+		try {
+			sink.append(r.data);
+			if (flushInterval == FLUSH_FRAME) {
+				sink.flush(sync);
+			} else if (!dirty.contains(sink)) {
+				dirty.add(sink);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Error when writing to output file " + sink + "!");
+		}
+	}
+
+	private void flushDirty() {
+		for (OutputSink sink : dirty) {
+			try {
+				sink.flush(sync);
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println("Error when flushing output file " + sink + "!");
+			}
+		}
+		dirty.clear();
+	}
+
+	private void closeSink(OutputSink sink) {
+		try {
+			sink.finish();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Error when closing output file " + sink + "!");
+		}
+	}
+
+}
@@ -0,0 +1,258 @@
+package com.smanzana.Project3.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+
+import com.smanzana.Project3.Transport.Inbound;
+
+/**
+ * Accumulates bytes coming in over a node's inbound link so nodes can ask for whole pieces of a frame.<br />
+ * Instead of polling the link and sleeping, callers block on the link itself, which wakes them up the moment new
+ * bytes arrive. Bytes are only ever removed from the buffer once the full amount asked for is there, so a
+ * timed out request leaves any partial frame in place for the next call.
+ * <p>Every Node (and so every Monitor and Bridge) owns one of these per inbound link.</p>
+ * @author Skyler
+ */
+public class ReceiveBuffer {
+
+	/**
+	 * How many bytes we keep around at once. Frames are at most 260 bytes, so this holds plenty of them.
+	 */
+	public static final int CAPACITY = 8192;
+
+	private Inbound link;
+	private Clock clock;
+
+	/**
+	 * Backing storage. Buffered (unread) bytes are the ones between <i>head</i> and <i>tail</i>.
+	 */
+	private byte[] data;
+	private ByteBuffer buffer;
+	private int head, tail;
+
+	private boolean closed;
+
+	/**
+	 * Buffers whatever comes in over the passed link.
+	 * @param link
+	 */
+	public ReceiveBuffer(Inbound link) {
+		this(link, Clock.SYSTEM);
+	}
+
+	/**
+	 * Buffers whatever comes in over the passed link, timing waits with <i>clock</i>.
+	 * @param link
+	 * @param clock
+	 */
+	public ReceiveBuffer(Inbound link, Clock clock) {
+		this.link = link;
+		this.clock = clock;
+		data = new byte[CAPACITY];
+		buffer = ByteBuffer.wrap(data);
+		head = 0;
+		tail = 0;
+		closed = false;
+	}
+
+	/**
+	 * Returns how many bytes are ready to be read without waiting. This pulls in whatever the link has first.
+	 * @return
+	 * @throws IOException
+	 */
+	public int available() throws IOException {
+		fill();
+		return tail - head;
+	}
+
+	/**
+	 * Waits until at least <i>size</i> bytes are buffered, or the timeout passes.<br />
+	 * Nothing is consumed.
+	 * @param size How many bytes we want
+	 * @param timeout How long to wait, in milliseconds. 0 or less means don't wait at all.
+	 * @return true if the bytes are there, false if we timed out (or the other end hung up)
+	 * @throws IOException
+	 */
+	public boolean await(int size, int timeout) throws IOException {
+		long deadline = clock.millis() + timeout;
+		long remaining;
+
+		while (true) {
+			fill();
+			if (tail - head >= size) {
+				return true;
+			}
+			if (closed) {
+				return false;
+			}
+
+			remaining = deadline - clock.millis();
+			if (remaining <= 0) {
+				return false;
+			}
+
+			link.await(remaining);
+		}
+	}
+
+	/**
+	 * Blocks until <i>size</i> bytes are buffered. There's no timeout here.
+	 * @param size
+	 * @throws IOException if the other end closed the connection before the bytes showed up
+	 */
+	public void await(int size) throws IOException {
+		while (true) {
+			fill();
+			if (tail - head >= size) {
+				return;
+			}
+			if (closed) {
+				throw new IOException("Connection was closed while waiting for " + size + " bytes");
+			}
+			link.await(0);
+		}
+	}
+
+	/**
+	 * Tries to read <i>size</i> bytes within <i>timeout</i> milliseconds.<br />
+	 * If not enough bytes show up in time, returns null without consuming anything.
+	 * @param size
+	 * @param timeout
+	 * @return the bytes, or null on timeout
+	 * @throws IOException
+	 */
+	public byte[] read(int size, int timeout) throws IOException {
+		if (!await(size, timeout)) {
+			return null;
+		}
+
+		return take(size);
+	}
+
+	/**
+	 * Reads <i>size</i> bytes, blocking until they are all there.
+	 * @param size
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] read(int size) throws IOException {
+		await(size);
+		return take(size);
+	}
+
+	/**
+	 * Reads a single byte, blocking until one is ready.
+	 * @return the byte, or -1 if the connection was closed
+	 * @throws IOException
+	 */
+	public int read() throws IOException {
+		try {
+			await(1);
+		} catch (IOException e) {
+			return -1;
+		}
+		return data[head++] & 0xFF;
+	}
+
+	/**
+	 * The buffer everything gets read into. Use {@link #position()} to find the first unread byte in it. It's
+	 * backed by an array, so frames can be looked at (and forwarded) right where they sit.
+	 * @return
+	 */
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return The absolute index of the first unread byte in {@link #buffer()}
+	 */
+	public int position() {
+		return head;
+	}
+
+	/**
+	 * Looks at an already buffered byte without consuming it.
+	 * @param index How far past the first unread byte to look
+	 * @return
+	 */
+	public byte peek(int index) {
+		return data[head + index];
+	}
+
+	/**
+	 * Consumes <i>count</i> already buffered bytes without copying them anywhere.<br />
+	 * The bytes stay where they are in {@link #buffer()} until the next time anything is read or waited on, so
+	 * anything looking at them directly is safe until then.
+	 * @param count
+	 */
+	public void skip(int count) {
+		head += count;
+	}
+
+	/**
+	 * Whether the other end closed the connection. Any bytes already buffered can still be read.
+	 * @return
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Also registers our link with somebody else's selector. The waiting methods here don't use it, so this is only
+	 * useful for callers that read with a timeout of 0.
+	 * @param selector
+	 * @param attachment
+	 * @return Whether the link could actually be registered. See {@link Inbound#register(Selector, Object)}
+	 * @throws IOException
+	 */
+	public boolean register(Selector selector, Object attachment) throws IOException {
+		return link.register(selector, attachment);
+	}
+
+	public void close() throws IOException {
+		link.close();
+	}
+
+	private byte[] take(int size) {
+		byte[] out = new byte[size];
+		System.arraycopy(data, head, out, 0, size);
+		head += size;
+		return out;
+	}
+
+	/**
+	 * Pulls whatever the link has into the buffer without blocking.
+	 * @throws IOException
+	 */
+	private void fill() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		if (head == tail) {
+			//everything has been read, so start over at the front for free
+			head = 0;
+			tail = 0;
+		} else if (tail == data.length) {
+			//out of room at the end. Slide what's left to the front
+			System.arraycopy(data, head, data, 0, tail - head);
+			tail -= head;
+			head = 0;
+		}
+
+		if (tail == data.length) {
+			return; //completely full
+		}
+
+		buffer.limit(data.length);
+		buffer.position(tail);
+		int count = link.read(buffer);
+		if (count == -1) {
+			closed = true;
+			return;
+		}
+		tail += count;
+	}
+
+}
@@ -0,0 +1,37 @@
+package com.smanzana.Project3.Utils;
+
+/**
+ * A clock that only moves when it's told to. Kept in nanoseconds, since a byte on a fast link takes a lot less than
+ * a millisecond to send.<br />
+ * It never goes backwards. Asking it to move to a time that's already passed does nothing.
+ * @author Skyler
+ */
+public class VirtualClock extends Clock {
+
+	private long nanos;
+
+	public VirtualClock() {
+		nanos = 0;
+	}
+
+	@Override
+	public long millis() {
+		return nanos / 1000000;
+	}
+
+	@Override
+	public long nanos() {
+		return nanos;
+	}
+
+	/**
+	 * Moves the clock up to <i>nanos</i>, if that's later than it is now.
+	 * @param nanos
+	 */
+	public void advanceTo(long nanos) {
+		if (nanos > this.nanos) {
+			this.nanos = nanos;
+		}
+	}
+
+}